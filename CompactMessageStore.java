@@ -0,0 +1,243 @@
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Message store for many small messages, with as little as possible on the
+// heap. A message is kept as its UTF-8 bytes, prefixed by a variable-length
+// byte count, in large direct ByteBuffer slabs, and a mailbox is just a long[]
+// of slab positions. Per message that is 8 bytes of heap in one primitive
+// array, against a String, its byte array and a reference for each message in
+// ConcurrentMessageStore, so the collector has almost nothing to trace.
+// Strings are only created when messages are read.
+//
+// Each username is given an int id when its mailbox is created, and the id
+// picks one of ARENAS arenas; the arena's monitor guards both its slabs and
+// the mailboxes of its users, so writers to different arenas do not contend.
+// Readers take no lock, relying on the same publication order as
+// ConcurrentMessageStore: bytes and positions are written before the count.
+//
+// Slabs are never freed, as messages are never deleted. Direct memory is
+// limited by -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+public class CompactMessageStore implements MessageStore {
+
+    static final int SLAB_SIZE = 1 << 20;
+    static final int ARENAS = 16;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final AtomicInteger nextUserId = new AtomicInteger();
+    private final Arena[] arenas = new Arena[ARENAS];
+
+    public CompactMessageStore() {
+        for (int i = 0; i < ARENAS; i++) {
+            arenas[i] = new Arena();
+        }
+    }
+
+    @Override
+    public long storeMessage(String username, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        Mailbox mailbox = mailbox(username);
+        Arena arena = arenas[mailbox.id % ARENAS];
+        synchronized (arena) {
+            return mailbox.append(arena.write(bytes));
+        }
+    }
+
+    @Override
+    public long storeMessages(String username, List<String> messages) {
+        byte[][] encoded = new byte[messages.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = messages.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        Mailbox mailbox = mailbox(username);
+        Arena arena = arenas[mailbox.id % ARENAS];
+        synchronized (arena) {
+            long first = mailbox.count;
+            for (byte[] bytes : encoded) {
+                mailbox.append(arena.write(bytes));
+            }
+            return first;
+        }
+    }
+
+    @Override
+    public List<String> retrieveMessages(String username) {
+        Mailbox mailbox = mailboxes.get(username);
+        return mailbox == null ? new ArrayList<>() : read(mailbox, 0, Integer.MAX_VALUE).getMessages();
+    }
+
+    @Override
+    public MessagePage retrieveMessages(String username, long cursor, int pageSize) {
+        if (cursor < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid cursor or page size: " + cursor + ", " + pageSize);
+        }
+        Mailbox mailbox = mailboxes.get(username);
+        return mailbox == null ? new MessagePage(new ArrayList<>(), cursor, false) : read(mailbox, cursor, pageSize);
+    }
+
+    private Mailbox mailbox(String username) {
+        Mailbox mailbox = mailboxes.get(username);
+        return mailbox != null ? mailbox : mailboxes.computeIfAbsent(username, k -> new Mailbox(nextUserId.getAndIncrement()));
+    }
+
+    private MessagePage read(Mailbox mailbox, long cursor, int pageSize) {
+        int n = mailbox.count;
+        long[] positions = mailbox.positions;
+        Arena arena = arenas[mailbox.id % ARENAS];
+        int from = (int) Math.min(cursor, n);
+        int to = (int) Math.min(n, (long) from + pageSize);
+        List<String> messages = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            messages.add(arena.read(positions[i]));
+        }
+        return new MessagePage(messages, from, to < n);
+    }
+
+    // Inner classes
+
+    // Slabs of message bytes. A position is the slab number in the high 32
+    // bits and the offset of the message's length prefix in the low 32.
+    private static final class Arena {
+        private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+        private ByteBuffer current;
+        private int used;
+
+        // Copy a message into the current slab, starting a new one if it
+        // does not fit. Called holding the arena's monitor.
+        long write(byte[] message) {
+            int needed = varintSize(message.length) + message.length;
+            if (current == null || used + needed > current.capacity()) {
+                current = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, needed));
+                used = 0;
+                ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+                grown[grown.length - 1] = current;
+                slabs = grown;
+            }
+            long position = (long) (slabs.length - 1) << 32 | used;
+            int offset = used;
+            for (int length = message.length; ; length >>>= 7) {
+                if ((length & ~0x7F) == 0) {
+                    current.put(offset++, (byte) length);
+                    break;
+                }
+                current.put(offset++, (byte) (length & 0x7F | 0x80));
+            }
+            current.put(offset, message);
+            used = offset + message.length;
+            return position;
+        }
+
+        String read(long position) {
+            ByteBuffer slab = slabs[(int) (position >>> 32)];
+            int offset = (int) position;
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = slab.get(offset++);
+                length |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            byte[] bytes = new byte[length];
+            slab.get(offset, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static int varintSize(int value) {
+            return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+        }
+    }
+
+    // Positions of one user's messages. Written holding the arena's monitor;
+    // positions are written before count and the array is only replaced by a
+    // longer copy, so readers need no lock.
+    private static final class Mailbox {
+        final int id;
+        volatile long[] positions = new long[INITIAL_CAPACITY];
+        volatile int count;
+
+        Mailbox(int id) {
+            this.id = id;
+        }
+
+        int append(long position) {
+            long[] current = positions;
+            int n = count;
+            if (n == current.length) {
+                current = Arrays.copyOf(current, n * 2);
+                current[n] = position;
+                positions = current;
+            } else {
+                current[n] = position;
+            }
+            count = n + 1;
+            return n;
+        }
+    }
+
+    // Testing and Benchmarking Functions
+
+    // Fill each store with small messages and compare the heap and direct
+    // memory they hold and the time spent in GC:
+    // java CompactMessageStore [messages] [users]
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        measure(new ConcurrentMessageStore(), messages, users);
+        measure(new CompactMessageStore(), messages, users);
+    }
+
+    private static void measure(MessageStore store, int messages, int users) {
+        System.gc();
+        long heapBefore = usedHeap(), directBefore = usedDirect(), gcBefore = gcTime();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            store.storeMessage("user" + i % users, "message number " + i);
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        long gc = gcTime() - gcBefore;
+        System.gc();
+        long heap = usedHeap() - heapBefore, direct = usedDirect() - directBefore;
+        System.out.printf("%s: %,.0f stores/s, heap %,d MB, direct %,d MB, %.1f bytes/message, GC %d ms%n",
+                store.getClass().getName(), messages / seconds, heap >> 20, direct >> 20,
+                (double) (heap + direct) / messages, gc);
+
+        for (int u = 0; u < users; u += users / 10 + 1) {
+            List<String> mailbox = store.retrieveMessages("user" + u);
+            for (int i = 0; i < mailbox.size(); i++) {
+                if (!mailbox.get(i).equals("message number " + ((long) i * users + u))) {
+                    throw new AssertionError("Wrong message " + i + " for user" + u + ": " + mailbox.get(i));
+                }
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    private static long gcTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Message store that lets users proceed independently. Mailboxes live in a
+// ConcurrentHashMap, so finding one takes no global lock. Appends to a mailbox
+// lock only that mailbox, and reads take no lock at all: they copy a prefix of
+// the mailbox's array, which is never changed below its published size.
+public class ConcurrentMessageStore implements MessageStore {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    @Override
+    public long storeMessage(String username, String message) {
+        return mailboxes.computeIfAbsent(username, k -> new Mailbox()).append(message);
+    }
+
+    @Override
+    public long storeMessages(String username, List<String> messages) {
+        return mailboxes.computeIfAbsent(username, k -> new Mailbox()).appendAll(messages);
+    }
+
+    @Override
+    public List<String> retrieveMessages(String username) {
+        Mailbox mailbox = mailboxes.get(username);
+        return mailbox == null ? new ArrayList<>() : mailbox.snapshot();
+    }
+
+    @Override
+    public MessagePage retrieveMessages(String username, long cursor, int pageSize) {
+        if (cursor < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid cursor or page size: " + cursor + ", " + pageSize);
+        }
+        Mailbox mailbox = mailboxes.get(username);
+        return mailbox == null ? new MessagePage(new ArrayList<>(), cursor, false) : mailbox.page(cursor, pageSize);
+    }
+
+    // Messages of one user. Writers hold the mailbox's monitor; readers rely on
+    // the volatile fields: messages is written before size, and is only ever
+    // replaced by a longer copy, so after reading size a reader always finds
+    // at least that many messages in the array it reads next.
+    private static class Mailbox {
+        private volatile String[] messages = new String[INITIAL_CAPACITY];
+        private volatile int size;
+
+        synchronized int append(String message) {
+            String[] current = messages;
+            int n = size;
+            if (n == current.length) {
+                current = Arrays.copyOf(current, n * 2);
+                current[n] = message;
+                messages = current;
+            } else {
+                current[n] = message;
+            }
+            size = n + 1;
+            return n;
+        }
+
+        synchronized int appendAll(List<String> batch) {
+            String[] current = messages;
+            int first = size;
+            int n = first;
+            if (n + batch.size() > current.length) {
+                current = Arrays.copyOf(current, Math.max(n * 2, n + batch.size()));
+            }
+            for (String message : batch) {
+                current[n++] = message;
+            }
+            messages = current;
+            size = n;
+            return first;
+        }
+
+        List<String> snapshot() {
+            int n = size;
+            return new ArrayList<>(Arrays.asList(messages).subList(0, n));
+        }
+
+        MessagePage page(long cursor, int pageSize) {
+            int n = size;
+            int from = (int) Math.min(cursor, n);
+            int to = (int) Math.min(n, (long) from + pageSize);
+            return new MessagePage(new ArrayList<>(Arrays.asList(messages).subList(from, to)), from, to < n);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+// Viewport for deep zooms. The centre is held in arbitrary precision, so it
+// survives any number of zooms, while the extents are doubles: at a width of
+// 1e-100 a double still has full relative precision. Pixels are addressed as
+// double offsets from the centre, which is what the perturbation kernel needs.
+public final class DeepViewport {
+  // Below this pixel size double-precision coordinates turn the image blocky
+  public static final double PERTURBATION_PIXEL_SIZE = 1e-13;
+
+  private final BigDecimal centreX;
+  private final BigDecimal centreY;
+  private final double width;
+  private final double height;
+
+  public DeepViewport(BigDecimal centreX, BigDecimal centreY, double width, double height) {
+    if (!(width > 0.0) || !(height > 0.0)) {
+      throw new IllegalArgumentException("Viewport extents must be positive");
+    }
+    this.centreX = centreX;
+    this.centreY = centreY;
+    this.width = width;
+    this.height = height;
+  } // constructor
+
+  public DeepViewport(Viewport view) {
+    this(new BigDecimal(view.getX1() + view.getWidth() / 2.0),
+        new BigDecimal(view.getY1() + view.getHeight() / 2.0), view.getWidth(), view.getHeight());
+  } // constructor
+
+  public BigDecimal getCentreX() {
+    return centreX;
+  }
+
+  public BigDecimal getCentreY() {
+    return centreY;
+  }
+
+  public double getWidth() {
+    return width;
+  }
+
+  public double getHeight() {
+    return height;
+  }
+
+  // Decimal digits needed to resolve a pixel of an xsize by ysize image, with
+  // a margin for rounding in the reference orbit
+  public int precision(int xsize, int ysize) {
+    double pixel = Math.min(width / xsize, height / ysize);
+    return Math.max(20, (int) Math.ceil(-Math.log10(pixel)) + 20);
+  } // precision
+
+  // True once plain double coordinates can no longer resolve the pixels
+  public boolean needsPerturbation(int xsize, int ysize) {
+    return Math.min(width / xsize, height / ysize) < PERTURBATION_PIXEL_SIZE;
+  } // needsPerturbation
+
+  // The same region with double coordinates, for shallow zooms
+  public Viewport toViewport() {
+    return new Viewport(centreX.doubleValue() - width / 2.0, centreY.doubleValue() - height / 2.0,
+        width, height);
+  } // toViewport
+
+  // The region as offsets from the centre, as rendered by the perturbation kernel
+  public Viewport offsets() {
+    return new Viewport(-width / 2.0, -height / 2.0, width, height);
+  } // offsets
+
+  // Zoom in by a factor of two around the pixel (x, y) of an xsize by ysize image
+  public DeepViewport zoom(int x, int y, int xsize, int ysize) {
+    return recentre(x, y, xsize, ysize, width, height, width / 2.0, height / 2.0);
+  } // zoom
+
+  // Zoom out by a factor of two around the pixel (x, y); the inverse of zoom
+  public DeepViewport zoomOut(int x, int y, int xsize, int ysize) {
+    return recentre(x, y, xsize, ysize, -2.0 * width, -2.0 * height, 2.0 * width, 2.0 * height);
+  } // zoomOut
+
+  // Move the centre by the pixel's offset from the middle of the image, scaled
+  // to the given extents. The offsets are doubles relative to the extents, so
+  // adding them to the centre loses nothing that matters at this zoom level.
+  private DeepViewport recentre(int x, int y, int xsize, int ysize, double sx, double sy, double nw,
+      double nh) {
+    double dx = ((double) x / (double) xsize - 0.5) * sx;
+    double dy = ((double) y / (double) ysize - 0.5) * sy;
+    DeepViewport zoomed = new DeepViewport(centreX, centreY, nw, nh);
+    MathContext mc = new MathContext(zoomed.precision(xsize, ysize));
+    return new DeepViewport(centreX.add(new BigDecimal(dx), mc), centreY.add(new BigDecimal(dy), mc),
+        nw, nh);
+  } // recentre
+
+  @Override
+  public String toString() {
+    return "DeepViewport[centreX=" + centreX + ", centreY=" + centreY + ", width=" + width
+        + ", height=" + height + "]";
+  }
+}
+// class DeepViewport
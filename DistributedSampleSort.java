@@ -0,0 +1,244 @@
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+// Sample sort of an int[] across several SortWorker JVMs.
+//
+// A random sample of the list is sorted and splitters are taken from it so
+// that each worker gets a bucket in proportion to its parallelism: about n/k
+// values each for k equal workers. Values equal to a splitter that occurs
+// more than once are dealt round-robin over the buckets it bounds, so a
+// heavily repeated value is shared out rather than all sent to one worker.
+// The buckets are gathered into contiguous ranges of a scratch array
+// (in parallel, with per-block counts as in ParallelRadixSort), each range is
+// uploaded to its worker in chunks, sorted there, and downloaded straight into
+// its place in the list. As the buckets are in splitter order, concatenating
+// the sorted buckets sorts the list.
+//
+// A bucket whose worker fails is sorted locally instead.
+public class DistributedSampleSort {
+
+    public static final int CHUNK_SIZE = 1 << 16; // Elements per remote call (256 KB)
+    static final int OVERSAMPLING = 64; // Sample elements per bucket
+    static final int MIN_DISTRIBUTED = 1 << 16; // Shorter lists are sorted locally
+
+    private final List<String> urls;
+    private final ExecutorService senders = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "sort-sender");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public DistributedSampleSort(List<String> urls) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("No workers given");
+        }
+        this.urls = new ArrayList<>(urls);
+    }
+
+    // Sort the list into ascending order on the workers
+    public void sort(int[] list) throws InterruptedException {
+        List<SortWorker> workers = new ArrayList<>();
+        List<Integer> parallelism = new ArrayList<>();
+        for (String url : urls) {
+            try {
+                SortWorker worker = (SortWorker) Naming.lookup(url);
+                parallelism.add(Math.max(1, worker.getParallelism()));
+                workers.add(worker);
+            } catch (RemoteException | NotBoundException | MalformedURLException e) {
+                System.err.println("Cannot reach sort worker " + url + ": " + e);
+            }
+        }
+        if (workers.isEmpty() || list.length < MIN_DISTRIBUTED) {
+            ParallelPrimitiveSort.parallelQuickSort(list);
+            return;
+        }
+
+        int[] splitters = splitters(list, parallelism.stream().mapToInt(Integer::intValue).toArray());
+        int buckets = splitters.length + 1;
+        int[] scratch = new int[list.length];
+        int[] bucketStart = ForkJoinPool.commonPool().invoke(
+                ForkJoinTask.adapt(() -> gather(list, splitters, scratch)));
+
+        List<Future<?>> results = new ArrayList<>();
+        for (int b = 0; b < buckets; b++) {
+            SortWorker worker = workers.get(b);
+            int start = bucketStart[b], end = bucketStart[b + 1];
+            results.add(senders.submit(() -> {
+                try {
+                    sortRemotely(worker, scratch, list, start, end);
+                } catch (RemoteException | RuntimeException e) {
+                    System.err.println("Sort worker failed, sorting its bucket locally: " + e);
+                    Arrays.sort(scratch, start, end);
+                    System.arraycopy(scratch, start, list, start, end - start);
+                }
+            }));
+        }
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Bucket sort failed", e.getCause());
+            }
+        }
+    }
+
+    // Choose one splitter fewer than there are buckets from a sorted random
+    // sample of the list, so that bucket b gets about weights[b] / sum of
+    // weights of the values
+    static int[] splitters(int[] list, int[] weights) {
+        Random random = new Random();
+        int[] sample = new int[weights.length * OVERSAMPLING];
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = list[random.nextInt(list.length)];
+        }
+        Arrays.sort(sample);
+        long total = Arrays.stream(weights).asLongStream().sum();
+        int[] splitters = new int[weights.length - 1];
+        long below = 0;
+        for (int i = 0; i < splitters.length; i++) {
+            below += weights[i];
+            splitters[i] = sample[(int) (sample.length * below / total)];
+        }
+        return splitters;
+    }
+
+    // Bucket of the value at index i of the list: the number of splitters not
+    // greater than it. A value equal to several splitters also fits every
+    // bucket between them, so those ties are spread across all of them by
+    // index.
+    private static int bucket(int[] splitters, int value, int i) {
+        int high = upperBound(splitters, value);
+        if (high < 2 || splitters[high - 2] != value) {
+            return high;
+        }
+        int low = high - 2;
+        while (low > 0 && splitters[low - 1] == value) {
+            low--;
+        }
+        return low + 1 + i % (high - low);
+    }
+
+    // Number of splitters not greater than the value
+    private static int upperBound(int[] splitters, int value) {
+        int low = 0, high = splitters.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (splitters[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Copy the list into scratch grouped by bucket, returning where each bucket
+    // starts (with the list length appended)
+    private static int[] gather(int[] list, int[] splitters, int[] scratch) {
+        int buckets = splitters.length + 1;
+        int n = list.length;
+        int blocks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * ParallelQuickSort.TASKS_PER_THREAD,
+                n / ParallelRadixSort.MIN_BLOCK_SIZE));
+        int blockSize = (n + blocks - 1) / blocks;
+        int[][] next = new int[blocks][buckets];
+
+        ParallelQuickSort.forEachBlock(blocks, b -> {
+            for (int i = b * blockSize, end = Math.min(i + blockSize, n); i < end; i++) {
+                next[b][bucket(splitters, list[i], i)]++;
+            }
+        });
+        int[] bucketStart = new int[buckets + 1];
+        int position = 0;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            bucketStart[bucket] = position;
+            for (int b = 0; b < blocks; b++) {
+                int count = next[b][bucket];
+                next[b][bucket] = position;
+                position += count;
+            }
+        }
+        bucketStart[buckets] = n;
+        ParallelQuickSort.forEachBlock(blocks, b -> {
+            int[] offset = next[b];
+            for (int i = b * blockSize, end = Math.min(i + blockSize, n); i < end; i++) {
+                scratch[offset[bucket(splitters, list[i], i)]++] = list[i];
+            }
+        });
+        return bucketStart;
+    }
+
+    // Upload scratch[start..end), sort it on the worker and download it into list
+    private static void sortRemotely(SortWorker worker, int[] scratch, int[] list, int start, int end)
+            throws RemoteException {
+        long partition = worker.openPartition(end - start);
+        try {
+            for (int offset = start; offset < end; offset += CHUNK_SIZE) {
+                worker.putChunk(partition, offset - start,
+                        Arrays.copyOfRange(scratch, offset, Math.min(offset + CHUNK_SIZE, end)));
+            }
+            worker.sortPartition(partition);
+            for (int offset = start; offset < end; offset += CHUNK_SIZE) {
+                int length = Math.min(CHUNK_SIZE, end - offset);
+                System.arraycopy(worker.getChunk(partition, offset - start, length), 0, list, offset, length);
+            }
+        } finally {
+            try {
+                worker.closePartition(partition);
+            } catch (RemoteException e) {
+                // The worker is gone; its partition went with it
+            }
+        }
+    }
+
+    public void shutdown() {
+        senders.shutdownNow();
+    }
+
+    // Testing and Benchmarking Functions
+
+    // Sort a large random list on the given workers and check it:
+    // java DistributedSampleSort rmi://localhost:2101/SortWorker ...
+    public static void main(String[] args) throws Exception {
+        List<String> urls = Arrays.asList(args);
+        if (urls.isEmpty()) {
+            urls = List.of("rmi://localhost/" + SortWorkerImpl.NAME);
+        }
+        DistributedSampleSort sorter = new DistributedSampleSort(urls);
+
+        int arraySize = 10000000;
+        int[] list = new int[arraySize];
+        Random random = new Random(42);
+        for (int i = 0; i < arraySize; i++) {
+            list[i] = random.nextInt();
+        }
+        int[] expected = list.clone();
+
+        long startTime = System.nanoTime();
+        sorter.sort(list);
+        long distributedTime = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        ParallelPrimitiveSort.parallelQuickSort(expected);
+        long localTime = System.nanoTime() - startTime;
+
+        if (!Arrays.equals(list, expected)) {
+            throw new RuntimeException("Sorting failed!");
+        }
+        System.out.println("Sorting successful!");
+        System.out.println("Distributed Time: " + distributedTime + " ns");
+        System.out.println("Local Time: " + localTime + " ns");
+        sorter.shutdown();
+    }
+}
@@ -0,0 +1,307 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Out-of-core sort for files of fixed-width binary records that are too big to
+// sort in memory. Records are ordered by a signed big-endian long key at a
+// fixed offset in each record; records with equal keys keep their order.
+//
+// The input is read a chunk at a time through a MappedByteBuffer. Each chunk
+// is sorted with ParallelQuickSort (on small RunRecord objects holding a key
+// and the record's position, so the record bytes are never moved) and written
+// out as a sorted run. The runs are then merged k ways, with a PriorityQueue
+// of run cursors streaming the smallest record to the output. If there are
+// more runs than the I/O buffer budget can feed at once, they are merged in
+// several passes.
+//
+// The memory budget bounds the chunk bytes plus the RunRecords of a run; the
+// I/O buffer budget is shared between the run cursors and the output buffer.
+public class ExternalSort {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+    public static final int DEFAULT_IO_BUFFER = 4 << 20;
+    static final int MIN_CURSOR_BUFFER = 64 << 10; // Smallest read buffer per run being merged
+    // Heap bytes per record for its RunRecord, the reference to it and the
+    // scratch space ParallelQuickSort uses when partitioning in parallel
+    static final int RUN_RECORD_OVERHEAD = 40;
+
+    private final int recordSize;
+    private final int keyOffset;
+    private final long memoryBudget;
+    private final int ioBufferSize;
+    private final Path tempDir; // Where runs are written; null for the output file's directory
+
+    public ExternalSort(int recordSize, int keyOffset) {
+        this(recordSize, keyOffset, DEFAULT_MEMORY_BUDGET, DEFAULT_IO_BUFFER, null);
+    }
+
+    public ExternalSort(int recordSize, int keyOffset, long memoryBudget, int ioBufferSize, Path tempDir) {
+        if (recordSize <= 0 || keyOffset < 0 || keyOffset + Long.BYTES > recordSize) {
+            throw new IllegalArgumentException("Key must lie within the record");
+        }
+        if (memoryBudget < recordSize + RUN_RECORD_OVERHEAD || ioBufferSize < 2 * recordSize) {
+            throw new IllegalArgumentException("Budgets too small for one record");
+        }
+        this.recordSize = recordSize;
+        this.keyOffset = keyOffset;
+        this.memoryBudget = memoryBudget;
+        this.ioBufferSize = ioBufferSize;
+        this.tempDir = tempDir;
+    }
+
+    // Sort the records of input into output, which is created or replaced
+    public void sort(Path input, Path output) throws IOException {
+        Path dir = tempDir != null ? tempDir : output.toAbsolutePath().getParent();
+        List<Path> runs = new ArrayList<>();
+        List<Path> temporary = new ArrayList<>(); // Every run file, for clean-up
+        try {
+            try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+                if (in.size() % recordSize != 0) {
+                    throw new IOException(input + " is not a whole number of " + recordSize + "-byte records");
+                }
+                createRuns(in, dir, temporary);
+                runs.addAll(temporary);
+            }
+            if (runs.isEmpty()) {
+                Files.write(output, new byte[0]);
+                return;
+            }
+
+            // Merge passes until a single merge can produce the output
+            int fanIn = Math.max(2, ioBufferSize / Math.max(MIN_CURSOR_BUFFER, recordSize) - 1);
+            while (runs.size() > fanIn) {
+                List<Path> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += fanIn) {
+                    List<Path> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                    Path run = Files.createTempFile(dir, "run", ".tmp");
+                    temporary.add(run);
+                    merged.add(run);
+                    merge(group, run);
+                    for (Path p : group) {
+                        Files.delete(p);
+                    }
+                }
+                runs = merged;
+            }
+            merge(runs, output);
+        } finally {
+            for (Path run : temporary) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    // Sort the input a chunk at a time, adding a file for each sorted run
+    private void createRuns(FileChannel in, Path dir, List<Path> runs) throws IOException {
+        long perChunk = Math.min(memoryBudget / (recordSize + RUN_RECORD_OVERHEAD),
+                (Integer.MAX_VALUE - 8) / recordSize);
+        int recordsPerChunk = (int) perChunk;
+        byte[] chunk = null;
+        for (long position = 0; position < in.size(); position += (long) recordsPerChunk * recordSize) {
+            int records = (int) Math.min(recordsPerChunk, (in.size() - position) / recordSize);
+            if (chunk == null || chunk.length < records * recordSize) {
+                chunk = new byte[records * recordSize];
+            }
+            MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, position, (long) records * recordSize);
+            mapped.get(chunk, 0, records * recordSize);
+
+            ByteBuffer view = ByteBuffer.wrap(chunk);
+            RunRecord[] order = new RunRecord[records];
+            for (int i = 0; i < records; i++) {
+                order[i] = new RunRecord(view.getLong(i * recordSize + keyOffset), i);
+            }
+            ParallelQuickSort.parallelQuickSort(order);
+
+            Path run = Files.createTempFile(dir, "run", ".tmp");
+            runs.add(run);
+            try (FileChannel out = FileChannel.open(run, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(recordSize, ioBufferSize / recordSize * recordSize));
+                for (RunRecord r : order) {
+                    if (buffer.remaining() < recordSize) {
+                        drain(buffer, out);
+                    }
+                    buffer.put(chunk, r.index * recordSize, recordSize);
+                }
+                drain(buffer, out);
+            }
+        }
+    }
+
+    // Merge sorted runs into one sorted file
+    private void merge(List<Path> runs, Path output) throws IOException {
+        int bufferSize = Math.max(recordSize, ioBufferSize / (runs.size() + 1) / recordSize * recordSize);
+        PriorityQueue<RunCursor> heap = new PriorityQueue<>(runs.size());
+        List<RunCursor> cursors = new ArrayList<>();
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < runs.size(); i++) {
+                RunCursor cursor = new RunCursor(runs.get(i), i, bufferSize);
+                cursors.add(cursor);
+                if (cursor.advance()) {
+                    heap.add(cursor);
+                }
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+            while (!heap.isEmpty()) {
+                RunCursor smallest = heap.poll();
+                if (buffer.remaining() < recordSize) {
+                    drain(buffer, out);
+                }
+                smallest.copyRecord(buffer);
+                if (smallest.advance()) {
+                    heap.add(smallest);
+                }
+            }
+            drain(buffer, out);
+        } finally {
+            for (RunCursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    // Write out everything in the buffer and clear it
+    private static void drain(ByteBuffer buffer, FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // A record of the chunk being sorted: its key and its position in the chunk.
+    // Ties are broken by position, which keeps the sort stable.
+    static class RunRecord implements Comparable<RunRecord> {
+        final long key;
+        final int index;
+
+        RunRecord(long key, int index) {
+            this.key = key;
+            this.index = index;
+        }
+
+        @Override
+        public int compareTo(RunRecord other) {
+            int c = Long.compare(key, other.key);
+            return c != 0 ? c : Integer.compare(index, other.index);
+        }
+    }
+
+    // Read position in a sorted run. Ties between runs go to the earlier run,
+    // which holds the earlier records of the input.
+    private class RunCursor implements Comparable<RunCursor> {
+        private final FileChannel channel;
+        private final int run;
+        private final ByteBuffer buffer;
+        private long key;
+
+        RunCursor(Path path, int run, int bufferSize) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.run = run;
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+            buffer.limit(0);
+        }
+
+        // Move to the next record, returning false at the end of the run. The
+        // current record stays at the buffer's position until it is copied.
+        boolean advance() throws IOException {
+            if (buffer.remaining() < recordSize) {
+                buffer.compact();
+                while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                    // Refill the buffer from the run
+                }
+                buffer.flip();
+                if (buffer.remaining() < recordSize) {
+                    return false;
+                }
+            }
+            key = buffer.getLong(buffer.position() + keyOffset);
+            return true;
+        }
+
+        void copyRecord(ByteBuffer out) {
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + recordSize);
+            out.put(buffer);
+            buffer.limit(limit);
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public int compareTo(RunCursor other) {
+            int c = Long.compare(key, other.key);
+            return c != 0 ? c : Integer.compare(run, other.run);
+        }
+    }
+
+    // Testing and Benchmarking Functions
+
+    // Sort a generated file with a small memory budget and check the result:
+    // java ExternalSort [records] [memoryBudgetBytes]
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        long memory = args.length > 1 ? Long.parseLong(args[1]) : 16L << 20;
+        int recordSize = 100, keyOffset = 10;
+
+        Path input = Files.createTempFile("unsorted", ".bin");
+        Path output = Files.createTempFile("sorted", ".bin");
+        try {
+            java.util.Random random = new java.util.Random(42);
+            long keySum = 0;
+            try (FileChannel out = FileChannel.open(input, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(recordSize * 10000);
+                for (int i = 0; i < records; i++) {
+                    long key = random.nextLong();
+                    keySum += key;
+                    buffer.putInt(i).putInt(0).putShort((short) 0).putLong(key);
+                    buffer.position(buffer.position() + recordSize - 18);
+                    if (!buffer.hasRemaining()) {
+                        drain(buffer, out);
+                    }
+                }
+                drain(buffer, out);
+            }
+
+            ExternalSort sorter = new ExternalSort(recordSize, keyOffset, memory, 1 << 20, null);
+            long startTime = System.nanoTime();
+            sorter.sort(input, output);
+            long time = System.nanoTime() - startTime;
+
+            try (FileChannel in = FileChannel.open(output, StandardOpenOption.READ)) {
+                if (in.size() != (long) records * recordSize) {
+                    throw new RuntimeException("Sorting failed: wrong output size");
+                }
+                MappedByteBuffer sorted = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                long previous = Long.MIN_VALUE, sum = 0;
+                for (int i = 0; i < records; i++) {
+                    long key = sorted.getLong(i * recordSize + keyOffset);
+                    if (key < previous) {
+                        throw new RuntimeException("Sorting failed: out of order at record " + i);
+                    }
+                    previous = key;
+                    sum += key;
+                }
+                if (sum != keySum) {
+                    throw new RuntimeException("Sorting failed: records lost");
+                }
+            }
+            System.out.println("Sorting successful!");
+            System.out.println("Sorted " + records + " records (" + (long) records * recordSize / (1 << 20)
+                    + " MB) with a " + (memory >> 20) + " MB budget in " + time / 1000000 + " ms");
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.Random;
+
+// Shapes of input used to test and benchmark the sorts. Between them they
+// cover the classic Quick Sort traps: already ordered runs, many equal keys
+// and pivots that land at one end.
+public enum InputDistribution {
+    // Uniformly random values
+    RANDOM,
+    // Already in ascending order
+    SORTED,
+    // In descending order
+    REVERSE,
+    // Rising to the middle and falling again
+    ORGAN_PIPE,
+    // Random values drawn from only FEW_UNIQUE_KEYS distinct keys
+    FEW_UNIQUE,
+    // Sorted, then about one element in a hundred swapped with a random other
+    NEARLY_SORTED;
+
+    static final int FEW_UNIQUE_KEYS = 16;
+
+    // Generate size values of this distribution; the same seed gives the same values
+    public int[] generate(int size, long seed) {
+        Random random = new Random(seed);
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            switch (this) {
+                case RANDOM:
+                    values[i] = random.nextInt();
+                    break;
+                case SORTED:
+                case NEARLY_SORTED:
+                    values[i] = i;
+                    break;
+                case REVERSE:
+                    values[i] = size - i;
+                    break;
+                case ORGAN_PIPE:
+                    values[i] = i < size / 2 ? i : size - i;
+                    break;
+                case FEW_UNIQUE:
+                    values[i] = random.nextInt(FEW_UNIQUE_KEYS);
+                    break;
+            }
+        }
+        if (this == NEARLY_SORTED) {
+            for (int swaps = size / 100; swaps > 0; swaps--) {
+                int a = random.nextInt(size), b = random.nextInt(size);
+                int temp = values[a];
+                values[a] = values[b];
+                values[b] = temp;
+            }
+        }
+        return values;
+    }
+
+    // The same values as generate, boxed for the Comparable sorts
+    public Integer[] generateBoxed(int size, long seed) {
+        int[] values = generate(size, seed);
+        Integer[] boxed = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            boxed[i] = values[i];
+        }
+        return boxed;
+    }
+}
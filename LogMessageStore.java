@@ -0,0 +1,1040 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+// Message store that keeps messages in an append-only log on disk, so they
+// survive a restart.
+//
+// The log is a chain of segment files, each written through a
+// MappedByteBuffer: an append copies the record into the active segment's
+// mapping and returns, so writes run at close to memory speed. When the
+// active segment is full it is sealed (forced, truncated to its records and
+// given an index file) and a new one is started. A record holds the user, the
+// message's sequence number in the user's mailbox, the message and a CRC.
+//
+// In memory there is only a sparse index: for each user, the message count
+// and the position of every INDEX_INTERVAL-th message. A page is read by
+// jumping to the indexed position at or before the cursor and scanning
+// forward, skipping other users' records. Compaction rewrites sealed
+// segments with each user's records together, so those scans mostly read the
+// user's own records. It is tiered, so the cost per record does not grow with
+// the log: a compaction's output is a run of segments with a level, a newly
+// sealed segment being a run of level 0, and whenever the newest
+// MERGE_FANIN runs share a level they are merged into one run a level up. A
+// record is thus rewritten about log4(log size / segment size) times.
+//
+// How soon appends reach the disk is set by Durability. On startup the index
+// is rebuilt from the sealed segments' index files; only the segment that was
+// active at a crash is scanned, and its torn tail, if any, is dropped.
+//
+// Readers take no locks. Positions refer to Segment objects, and a segment's
+// mapping stays readable after compaction replaces and deletes its file (on
+// POSIX systems), so a page read during a compaction finishes on the old
+// segments.
+public class LogMessageStore implements MessageStore, Closeable {
+
+    private static final Logger LOG = Logger.getLogger(LogMessageStore.class.getName());
+
+    // When an append counts as stored
+    public enum Durability {
+        NONE,     // When the OS writes the mapping back, or a segment is sealed
+        PERIODIC, // Within the flush interval; a crash loses at most that much
+        SYNC      // Before the append returns; concurrent appends share one force
+    }
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    public static final long DEFAULT_FLUSH_INTERVAL = 50; // Milliseconds
+    static final int INDEX_INTERVAL = 64;      // Messages per sparse index entry
+    static final int MERGE_FANIN = 4;          // Runs of one level merged into the next
+
+    // Record layout: body length, CRC of the body, then the body: sequence
+    // number, user length, user and message bytes (UTF-8)
+    static final int HEADER = 8;
+    static final int BODY_HEADER = 6;
+
+    private static final String MANIFEST = "manifest";
+    private static final int ZERO_PAGE = 4096;
+
+    private final Path directory;
+    private final Durability durability;
+    private final int segmentSize;
+    private final long flushInterval;
+
+    private final ConcurrentHashMap<String, UserIndex> users = new ConcurrentHashMap<>();
+
+    // Guards appends, rolling segments and swapping in compacted segments
+    private final Object appendLock = new Object();
+    private final CRC32 crc = new CRC32();
+    private Segment head;
+    private volatile Segment active;
+    private long nextSegmentId;
+    private volatile long appended; // Bytes appended since the store was opened
+    private volatile boolean closed;
+
+    // Guards the flush state; SYNC appenders wait on it
+    private final Object flushLock = new Object();
+    private long requested;
+    private long durable;
+    private IOException flushFailure;
+    private final Thread flusher;
+
+    private final Object compactionLock = new Object(); // Serialises compactions
+    private volatile Thread compactor;
+
+    public LogMessageStore(Path directory) throws IOException {
+        this(directory, Durability.PERIODIC, DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    public LogMessageStore(Path directory, Durability durability, int segmentSize, long flushInterval) throws IOException {
+        if (segmentSize < HEADER + BODY_HEADER + 1 || flushInterval <= 0) {
+            throw new IllegalArgumentException("Invalid segment size or flush interval");
+        }
+        this.directory = directory;
+        this.durability = durability;
+        this.segmentSize = segmentSize;
+        this.flushInterval = flushInterval;
+        Files.createDirectories(directory);
+        recover();
+        if (durability == Durability.NONE) {
+            flusher = null;
+        } else {
+            flusher = new Thread(this::flushLoop, "LogMessageStore flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    @Override
+    public long storeMessage(String username, String message) {
+        return storeMessages(username, List.of(message));
+    }
+
+    @Override
+    public long storeMessages(String username, List<String> messages) {
+        byte[] user = username.getBytes(StandardCharsets.UTF_8);
+        if (user.length > 0xFFFF) {
+            throw new IllegalArgumentException("Username too long");
+        }
+        long end;
+        long first;
+        synchronized (appendLock) {
+            if (closed) {
+                throw new IllegalStateException("Store is closed");
+            }
+            UserIndex index = users.computeIfAbsent(username, k -> new UserIndex());
+            first = index.count;
+            try {
+                for (String message : messages) {
+                    append(index, user, message.getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            end = appended;
+        }
+        if (durability == Durability.SYNC && !messages.isEmpty()) {
+            awaitDurable(end);
+        }
+        return first;
+    }
+
+    @Override
+    public List<String> retrieveMessages(String username) {
+        UserIndex index = users.get(username);
+        return index == null ? new ArrayList<>() : read(username, index, 0, Integer.MAX_VALUE).getMessages();
+    }
+
+    @Override
+    public MessagePage retrieveMessages(String username, long cursor, int pageSize) {
+        if (cursor < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid cursor or page size: " + cursor + ", " + pageSize);
+        }
+        UserIndex index = users.get(username);
+        return index == null ? new MessagePage(new ArrayList<>(), cursor, false) : read(username, index, cursor, pageSize);
+    }
+
+    // Seal the active segment and stop the background threads. The next open
+    // then finds every segment indexed and scans nothing.
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        synchronized (flushLock) {
+            flushLock.notifyAll();
+        }
+        Thread compacting = compactor;
+        try {
+            if (flusher != null) {
+                flusher.join();
+            }
+            if (compacting != null) {
+                compacting.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing");
+        }
+        synchronized (appendLock) {
+            seal(active);
+        }
+        // Release SYNC appenders still waiting for the flusher
+        synchronized (flushLock) {
+            durable = appended;
+            flushLock.notifyAll();
+        }
+    }
+
+    // Merge every sealed segment into a single run, with each user's records
+    // together. Automatic compaction only ever merges the newest runs; this
+    // rewrites the whole log, so is for occasional use, such as before a
+    // backup.
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            List<List<Segment>> runs = sealedRuns();
+            if (runs.isEmpty() || (runs.size() == 1 && runs.get(0).get(0).level > 0)) {
+                return;
+            }
+            List<Segment> sealed = new ArrayList<>();
+            int level = 0;
+            for (List<Segment> run : runs) {
+                sealed.addAll(run);
+                level = Math.max(level, run.get(0).level);
+            }
+            rewrite(sealed, level + 1);
+        }
+    }
+
+    // Merge the newest runs for as long as MERGE_FANIN of them share a level,
+    // as when carrying in a base MERGE_FANIN counter
+    private void compactTiers() throws IOException {
+        synchronized (compactionLock) {
+            while (!closed) {
+                List<List<Segment>> runs = sealedRuns();
+                if (runs.size() < MERGE_FANIN) {
+                    return;
+                }
+                List<List<Segment>> newest = runs.subList(runs.size() - MERGE_FANIN, runs.size());
+                int level = newest.get(0).get(0).level;
+                List<Segment> sealed = new ArrayList<>();
+                for (List<Segment> run : newest) {
+                    if (run.get(0).level != level) {
+                        return;
+                    }
+                    sealed.addAll(run);
+                }
+                rewrite(sealed, level + 1);
+            }
+        }
+    }
+
+    // The sealed segments, oldest first, grouped into the runs they belong to
+    private List<List<Segment>> sealedRuns() {
+        List<List<Segment>> runs = new ArrayList<>();
+        synchronized (appendLock) {
+            List<Segment> run = null;
+            for (Segment s = head; s != active; s = s.next) {
+                if (run == null || run.get(0).run != s.run) {
+                    run = new ArrayList<>();
+                    runs.add(run);
+                }
+                run.add(s);
+            }
+        }
+        return runs;
+    }
+
+    // Rewrite consecutive sealed segments as a run of the given level with
+    // each user's records together, then swap the new segments in and delete
+    // the old ones. Appends carry on meanwhile; they only wait for the swap
+    // itself. Called holding compactionLock, so the segments around the
+    // rewritten ones stay where they are.
+    private void rewrite(List<Segment> sealed, int level) throws IOException {
+        Segment before = null;
+        synchronized (appendLock) {
+            for (Segment s = head; s != sealed.get(0); s = s.next) {
+                before = s;
+            }
+        }
+
+        // Find each user's records, in order, and the sequence number of the
+        // first, which locates them in the user's sparse index
+        LinkedHashMap<String, Positions> byUser = new LinkedHashMap<>();
+        for (int i = 0; i < sealed.size(); i++) {
+            Segment s = sealed.get(i);
+            for (int offset = 0; offset < s.size; offset += HEADER + s.buffer.getInt(offset)) {
+                Positions positions = byUser.computeIfAbsent(s.user(offset), k -> new Positions());
+                if (positions.size == 0) {
+                    positions.firstSequence = s.buffer.getInt(offset + HEADER);
+                }
+                positions.add((long) i << 32 | offset);
+            }
+        }
+
+        // Copy them out user by user, collecting the new sparse positions
+        // from each output segment's index as it is sealed
+        Map<String, List<Position>> compacted = new LinkedHashMap<>();
+        Segment first = null;
+        Segment out = null;
+        int outputs = 0;
+        byte[] record = new byte[256];
+        for (Positions positions : byUser.values()) {
+            for (int i = 0; i < positions.size; i++) {
+                Segment from = sealed.get((int) (positions.values[i] >>> 32));
+                int offset = (int) positions.values[i];
+                int length = HEADER + from.buffer.getInt(offset);
+                if (out == null || out.size + length > out.capacity) {
+                    Segment fresh;
+                    synchronized (appendLock) {
+                        fresh = createSegment(nextSegmentId++);
+                    }
+                    fresh.level = level;
+                    outputs++;
+                    if (out == null) {
+                        first = fresh;
+                    } else {
+                        addPositions(compacted, out, seal(out));
+                        out.next = fresh;
+                    }
+                    fresh.run = first.id;
+                    out = fresh;
+                }
+                if (record.length < length) {
+                    record = new byte[Math.max(length, record.length * 2)];
+                }
+                from.buffer.get(offset, record, 0, length);
+                out.buffer.put(out.size, record, 0, length);
+                out.size += length;
+            }
+        }
+        Segment rest = sealed.get(sealed.size() - 1).next;
+        if (out == null) {
+            first = rest;
+        } else {
+            addPositions(compacted, out, seal(out));
+            out.next = rest;
+        }
+
+        synchronized (appendLock) {
+            for (Map.Entry<String, List<Position>> entry : compacted.entrySet()) {
+                UserIndex index = users.get(entry.getKey());
+                int firstEntry = (byUser.get(entry.getKey()).firstSequence + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+                Position[] sparse = index.sparse.clone();
+                for (int i = 0; i < entry.getValue().size(); i++) {
+                    sparse[firstEntry + i] = entry.getValue().get(i);
+                }
+                index.sparse = sparse;
+            }
+            if (before == null) {
+                head = first;
+            } else {
+                before.next = first;
+            }
+            writeManifest();
+        }
+        for (Segment s : sealed) {
+            Files.deleteIfExists(s.path);
+            Files.deleteIfExists(indexPath(s.id));
+        }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Compacted " + sealed.size() + " segments into " + outputs + " at level " + level);
+        }
+    }
+
+    private static void addPositions(Map<String, List<Position>> compacted, Segment segment,
+                                     Map<String, SegmentIndex> index) {
+        for (Map.Entry<String, SegmentIndex> entry : index.entrySet()) {
+            List<Position> positions = compacted.computeIfAbsent(entry.getKey(), k -> new ArrayList<>());
+            SegmentIndex users = entry.getValue();
+            for (int i = 0; i < users.entries; i++) {
+                positions.add(new Position(segment, users.offsets[i]));
+            }
+        }
+    }
+
+    // Append one record to the active segment, rolling to a new one if it
+    // does not fit. Called holding appendLock.
+    private void append(UserIndex index, byte[] user, byte[] message) throws IOException {
+        int body = BODY_HEADER + user.length + message.length;
+        if (HEADER + body > segmentSize) {
+            throw new IllegalArgumentException("Message too large for a segment: " + message.length + " bytes");
+        }
+        Segment segment = active;
+        if (segment.size + HEADER + body > segment.capacity) {
+            roll();
+            segment = active;
+        }
+        int offset = segment.size;
+        int sequence = index.count;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(offset + HEADER, sequence);
+        buffer.putShort(offset + HEADER + 4, (short) user.length);
+        buffer.put(offset + HEADER + BODY_HEADER, user);
+        buffer.put(offset + HEADER + BODY_HEADER + user.length, message);
+        crc.reset();
+        crc.update(buffer.slice(offset + HEADER, body));
+        buffer.putInt(offset, body);
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        segment.size = offset + HEADER + body;
+        appended += HEADER + body;
+        index.add(sequence, segment, offset);
+    }
+
+    // Continue in a new segment and seal the old one. Called holding
+    // appendLock. The old segment is forced before the flusher can see the
+    // new one, as the flusher only forces the active segment. The new segment
+    // is created and recorded in the manifest before the old one is
+    // truncated, so if any of these steps fails the old segment is still
+    // whole and still active. Once appends go to the new segment, a failure
+    // to seal the old one only leaves it without an index, and recovery seals
+    // it.
+    private void roll() throws IOException {
+        Segment old = active;
+        old.force();
+        Segment fresh = createSegment(nextSegmentId++);
+        old.next = fresh;
+        try {
+            writeManifest();
+        } catch (IOException | RuntimeException e) {
+            old.next = null;
+            Files.deleteIfExists(fresh.path);
+            throw e;
+        }
+        active = fresh;
+        try {
+            seal(old);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Sealing segment " + old.id + " failed; it will be sealed on recovery", e);
+        }
+        startCompaction();
+    }
+
+    // Compact in the background unless a compaction is already running.
+    // Called holding appendLock.
+    private void startCompaction() {
+        if (compactor != null && compactor.isAlive()) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                compactTiers();
+            } catch (IOException | RuntimeException e) {
+                LOG.log(Level.WARNING, "Compaction failed", e);
+            }
+        }, "LogMessageStore compactor");
+        thread.setDaemon(true);
+        compactor = thread;
+        thread.start();
+    }
+
+    // Read messages from the cursor on: jump to the indexed record at or
+    // before it, then scan forward through the segments for the user's records
+    private MessagePage read(String username, UserIndex index, long cursor, int pageSize) {
+        int count = index.count;
+        Position[] sparse = index.sparse;
+        List<String> messages = new ArrayList<>();
+        if (cursor >= count) {
+            return new MessagePage(messages, cursor, false);
+        }
+        long last = Math.min(count, cursor + pageSize) - 1;
+        byte[] user = username.getBytes(StandardCharsets.UTF_8);
+        Position start = sparse[(int) (cursor / INDEX_INTERVAL)];
+        Segment segment = start.segment;
+        int offset = start.offset;
+        long sequence = -1;
+        while (sequence < last) {
+            if (offset >= segment.size) {
+                segment = segment.next;
+                offset = 0;
+                continue;
+            }
+            int body = segment.buffer.getInt(offset);
+            if (segment.isUser(offset, user)) {
+                sequence = segment.buffer.getInt(offset + HEADER);
+                if (sequence >= cursor) {
+                    messages.add(segment.message(offset, user.length, body));
+                }
+            }
+            offset += HEADER + body;
+        }
+        return new MessagePage(messages, cursor, last + 1 < count);
+    }
+
+    // Recovery
+
+    // Open the segments listed in the manifest. Indexed ones are added to the
+    // user index from their index files; one without an index (the active
+    // segment at a crash) is scanned, up to its first damaged record.
+    private void recover() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        List<long[]> tiers = new ArrayList<>(); // Level and run of each segment
+        Path manifest = directory.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest)) {
+                String[] fields = line.trim().split(" ");
+                if (!line.isBlank()) {
+                    long id = Long.parseLong(fields[0]);
+                    ids.add(id);
+                    tiers.add(fields.length == 3
+                            ? new long[] {Long.parseLong(fields[1]), Long.parseLong(fields[2])}
+                            : new long[] {0, id});
+                }
+            }
+        }
+        deleteUnlisted(ids);
+
+        Segment previous = null;
+        for (int i = 0; i < ids.size(); i++) {
+            long id = ids.get(i);
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+            Segment segment;
+            Map<String, SegmentIndex> index;
+            if (Files.exists(indexPath(id))) {
+                segment = openSealed(id);
+                index = readIndex(segment);
+            } else {
+                segment = openActive(id);
+                index = scan(segment, true);
+                if (i == ids.size() - 1) {
+                    active = segment;
+                } else {
+                    seal(segment);
+                }
+            }
+            segment.level = (int) tiers.get(i)[0];
+            segment.run = tiers.get(i)[1];
+            for (Map.Entry<String, SegmentIndex> entry : index.entrySet()) {
+                users.computeIfAbsent(entry.getKey(), k -> new UserIndex()).addSegment(segment, entry.getValue());
+            }
+            if (previous == null) {
+                head = segment;
+            } else {
+                previous.next = segment;
+            }
+            previous = segment;
+        }
+        if (active == null) {
+            active = createSegment(nextSegmentId++);
+            if (previous == null) {
+                head = active;
+            } else {
+                previous.next = active;
+            }
+            writeManifest();
+        }
+    }
+
+    // Remove files a crash left behind, such as the output of an unfinished
+    // compaction
+    private void deleteUnlisted(List<Long> ids) throws IOException {
+        Set<Path> keep = new HashSet<>();
+        keep.add(directory.resolve(MANIFEST));
+        for (long id : ids) {
+            keep.add(segmentPath(id));
+            keep.add(indexPath(id));
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{log,index,tmp}")) {
+            for (Path file : files) {
+                if (!keep.contains(file)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    // Summarise the records of a segment, stopping at the end of its valid
+    // records and setting its size there. With verify, CRCs are checked and
+    // the remains of a torn record are zeroed so later appends start clean.
+    private static Map<String, SegmentIndex> scan(Segment segment, boolean verify) {
+        Map<String, SegmentIndex> index = new LinkedHashMap<>();
+        MappedByteBuffer buffer = segment.buffer;
+        CRC32 check = new CRC32();
+        int limit = verify ? segment.capacity : segment.size;
+        int offset = 0;
+        while (offset + HEADER <= limit) {
+            int body = buffer.getInt(offset);
+            if (body < BODY_HEADER || body > limit - offset - HEADER
+                    || BODY_HEADER + (buffer.getShort(offset + HEADER + 4) & 0xFFFF) > body) {
+                break;
+            }
+            if (verify) {
+                check.reset();
+                check.update(buffer.slice(offset + HEADER, body));
+                if ((int) check.getValue() != buffer.getInt(offset + 4)) {
+                    break;
+                }
+            }
+            SegmentIndex entry = index.computeIfAbsent(segment.user(offset), k -> new SegmentIndex());
+            entry.add(buffer.getInt(offset + HEADER), offset);
+            offset += HEADER + body;
+        }
+        if (verify && segment.writable) {
+            zeroTail(buffer, offset, limit);
+        }
+        segment.size = offset;
+        return index;
+    }
+
+    // Zero whatever follows the last valid record, so that intact records
+    // beyond a damaged one cannot reappear after later appends overwrite the
+    // damage. The file was zero when created and is written from the front, so
+    // the first page that is already all zero ends the old data.
+    private static void zeroTail(MappedByteBuffer buffer, int from, int limit) {
+        for (int page = from; page < limit; page = (page / ZERO_PAGE + 1) * ZERO_PAGE) {
+            int end = Math.min(limit, (page / ZERO_PAGE + 1) * ZERO_PAGE);
+            boolean dirty = false;
+            for (int i = page; i < end; i++) {
+                if (buffer.get(i) != 0) {
+                    buffer.put(i, (byte) 0);
+                    dirty = true;
+                }
+            }
+            if (!dirty && page > from) {
+                break;
+            }
+        }
+    }
+
+    // Segment files
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%016d.log", id));
+    }
+
+    private Path indexPath(long id) {
+        return directory.resolve(String.format("%016d.index", id));
+    }
+
+    private Segment createSegment(long id) throws IOException {
+        Path path = segmentPath(id);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize), true);
+        }
+    }
+
+    private Segment openActive(long id) throws IOException {
+        Path path = segmentPath(id);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = Math.max(segmentSize, channel.size());
+            return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), true);
+        }
+    }
+
+    private Segment openSealed(long id) throws IOException {
+        Path path = segmentPath(id);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Segment segment = new Segment(id, path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), false);
+            segment.size = segment.capacity;
+            return segment;
+        }
+    }
+
+    // Force a segment, cut its file to its records and write its index. Readers
+    // never look past size, so the truncation is safe while they scan it.
+    private Map<String, SegmentIndex> seal(Segment segment) throws IOException {
+        segment.force();
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.WRITE)) {
+            channel.truncate(segment.size);
+            channel.force(true);
+        }
+        Map<String, SegmentIndex> index = scan(segment, false);
+        writeIndex(segment, index);
+        return index;
+    }
+
+    // Index file: the number of users, then for each one its name, its record
+    // count in the segment, and the offsets of its indexed records
+    private void writeIndex(Segment segment, Map<String, SegmentIndex> index) throws IOException {
+        Path path = indexPath(segment.id);
+        Path temporary = directory.resolve(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(index.size());
+            for (Map.Entry<String, SegmentIndex> entry : index.entrySet()) {
+                SegmentIndex users = entry.getValue();
+                byte[] user = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(user.length);
+                out.write(user);
+                out.writeInt(users.count);
+                out.writeInt(users.entries);
+                for (int i = 0; i < users.entries; i++) {
+                    out.writeInt(users.offsets[i]);
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Map<String, SegmentIndex> readIndex(Segment segment) throws IOException {
+        Map<String, SegmentIndex> index = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath(segment.id))))) {
+            for (int n = in.readInt(); n > 0; n--) {
+                SegmentIndex entry = new SegmentIndex();
+                byte[] user = new byte[in.readUnsignedShort()];
+                in.readFully(user);
+                entry.count = in.readInt();
+                entry.entries = in.readInt();
+                entry.offsets = new int[entry.entries];
+                for (int i = 0; i < entry.entries; i++) {
+                    entry.offsets[i] = in.readInt();
+                }
+                index.put(new String(user, StandardCharsets.UTF_8), entry);
+            }
+        }
+        return index;
+    }
+
+    // Record the segment chain from head on, with each segment's level and
+    // run. Called holding appendLock, or before the store is in use.
+    private void writeManifest() throws IOException {
+        Path temporary = directory.resolve(MANIFEST + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            for (Segment s = head; s != null; s = s.next) {
+                out.writeBytes(s.id + " " + s.level + " " + s.run + "\n");
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Durability
+
+    // Wait until the flusher has forced everything up to end. Appenders that
+    // arrive while a force is running are all covered by the next one.
+    private void awaitDurable(long end) {
+        synchronized (flushLock) {
+            if (end > requested) {
+                requested = end;
+                flushLock.notifyAll();
+            }
+            while (durable < end) {
+                if (flushFailure != null) {
+                    throw new UncheckedIOException(flushFailure);
+                }
+                try {
+                    flushLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for a flush"));
+                }
+            }
+        }
+    }
+
+    // With SYNC, force as soon as an appender asks; with PERIODIC, force
+    // whatever was appended every flush interval
+    private void flushLoop() {
+        try {
+            while (true) {
+                synchronized (flushLock) {
+                    if (durability == Durability.SYNC) {
+                        while (!closed && requested <= durable) {
+                            flushLock.wait();
+                        }
+                    } else if (!closed) {
+                        flushLock.wait(flushInterval);
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                // Everything counted in appended is in the active segment or
+                // in one that roll forced before making another active
+                long target = appended;
+                if (target > durable) {
+                    active.force();
+                    synchronized (flushLock) {
+                        durable = target;
+                        flushLock.notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (UncheckedIOException e) {
+            synchronized (flushLock) {
+                flushFailure = e.getCause();
+                flushLock.notifyAll();
+            }
+            LOG.log(Level.SEVERE, "Flushing the message log failed", e);
+        }
+    }
+
+    // Inner classes
+
+    // One segment file, mapped into memory. Records are only added at size,
+    // which is published after the record is written.
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final boolean writable;
+        volatile int size;
+        volatile Segment next;
+        int level;    // Compaction tier; 0 until the segment is first compacted
+        long run;     // Id of the first segment of the run it belongs to
+        private int forced;
+
+        Segment(long id, Path path, MappedByteBuffer buffer, boolean writable) {
+            this.id = id;
+            this.run = id;
+            this.path = path;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+            this.writable = writable;
+        }
+
+        synchronized void force() {
+            int end = size;
+            if (writable && end > forced) {
+                buffer.force(forced, end - forced);
+                forced = end;
+            }
+        }
+
+        String user(int offset) {
+            byte[] user = new byte[buffer.getShort(offset + HEADER + 4) & 0xFFFF];
+            buffer.get(offset + HEADER + BODY_HEADER, user);
+            return new String(user, StandardCharsets.UTF_8);
+        }
+
+        boolean isUser(int offset, byte[] user) {
+            if ((buffer.getShort(offset + HEADER + 4) & 0xFFFF) != user.length) {
+                return false;
+            }
+            int start = offset + HEADER + BODY_HEADER;
+            for (int i = 0; i < user.length; i++) {
+                if (buffer.get(start + i) != user[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String message(int offset, int userLength, int body) {
+            byte[] message = new byte[body - BODY_HEADER - userLength];
+            buffer.get(offset + HEADER + BODY_HEADER + userLength, message);
+            return new String(message, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Where a record is
+    private static final class Position {
+        final Segment segment;
+        final int offset;
+
+        Position(Segment segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    // The in-memory index of one user: the message count, and the position of
+    // message i * INDEX_INTERVAL at sparse[i]. Updated holding appendLock; as
+    // in ConcurrentMessageStore's mailboxes, entries are written before count
+    // and the array is only replaced by a longer copy, so readers need no lock.
+    private static final class UserIndex {
+        volatile int count;
+        volatile Position[] sparse = new Position[1];
+
+        void add(int sequence, Segment segment, int offset) {
+            if (sequence % INDEX_INTERVAL == 0) {
+                int entry = sequence / INDEX_INTERVAL;
+                Position[] current = sparse;
+                if (entry == current.length) {
+                    current = Arrays.copyOf(current, entry * 2);
+                    current[entry] = new Position(segment, offset);
+                    sparse = current;
+                } else {
+                    current[entry] = new Position(segment, offset);
+                }
+            }
+            count = sequence + 1;
+        }
+
+        // Add a segment's records while recovering
+        void addSegment(Segment segment, SegmentIndex index) {
+            int first = (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+            Position[] current = sparse;
+            if (first + index.entries > current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, first + index.entries));
+            }
+            for (int i = 0; i < index.entries; i++) {
+                current[first + i] = new Position(segment, index.offsets[i]);
+            }
+            sparse = current;
+            count += index.count;
+        }
+    }
+
+    // One user's records in one segment: how many, and the offsets of those
+    // the sparse index points to
+    private static final class SegmentIndex {
+        int count;
+        int entries;
+        int[] offsets = new int[4];
+
+        void add(int sequence, int offset) {
+            count++;
+            if (sequence % INDEX_INTERVAL == 0) {
+                if (entries == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, entries * 2);
+                }
+                offsets[entries++] = offset;
+            }
+        }
+    }
+
+    // Growable list of packed (segment, offset) positions used by compaction
+    private static final class Positions {
+        long[] values = new long[8];
+        int size;
+        int firstSequence;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    // Testing and Benchmarking Functions
+
+    // Compare append throughput with ConcurrentMessageStore for each durability
+    // level, then reopen the log, compact it and check every message:
+    // java LogMessageStore [messages] [writers]
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int writers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int usersPerWriter = 50;
+
+        System.out.printf("ConcurrentMessageStore: %,.0f messages/s%n",
+                throughput(new ConcurrentMessageStore(), messages, writers, usersPerWriter));
+        Path directory = Files.createTempDirectory("messagelog");
+        try {
+            for (Durability level : Durability.values()) {
+                Path dir = Files.createDirectory(directory.resolve(level.name()));
+                // SYNC waits for a force per batch, so give it fewer messages
+                int n = level == Durability.SYNC ? messages / 20 : messages;
+                try (LogMessageStore store = new LogMessageStore(dir, level, 8 << 20, DEFAULT_FLUSH_INTERVAL)) {
+                    System.out.printf("LogMessageStore %s: %,.0f messages/s%n", level,
+                            throughput(store, n, writers, usersPerWriter));
+                }
+            }
+
+            Path dir = directory.resolve(Durability.NONE.name());
+            long startTime = System.nanoTime();
+            LogMessageStore store = new LogMessageStore(dir, Durability.NONE, 8 << 20, DEFAULT_FLUSH_INTERVAL);
+            System.out.printf("Recovery: %.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+            check(store, messages, writers, usersPerWriter);
+            startTime = System.nanoTime();
+            store.compact();
+            System.out.printf("Compaction: %.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+            check(store, messages, writers, usersPerWriter);
+            store.close();
+            store = new LogMessageStore(dir, Durability.NONE, 8 << 20, DEFAULT_FLUSH_INTERVAL);
+            check(store, messages, writers, usersPerWriter);
+            store.close();
+            System.out.println("All messages read back correctly");
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.walk(directory)) {
+                files.sorted(java.util.Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    // Messages per second stored by writers threads, each storing batches of
+    // 10 messages for its own users
+    private static double throughput(MessageStore store, int messages, int writers, int usersPerWriter)
+            throws InterruptedException {
+        Thread[] threads = new Thread[writers];
+        long startTime = System.nanoTime();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            threads[w] = new Thread(() -> {
+                List<String> batch = new ArrayList<>();
+                for (int i = writer; i < messages; i += writers) {
+                    batch.add("message " + i);
+                    if (batch.size() == 10 || i + writers >= messages) {
+                        store.storeMessages("user" + (writer * usersPerWriter + i / writers % usersPerWriter), batch);
+                        batch = new ArrayList<>();
+                    }
+                }
+            });
+            threads[w].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return messages / ((System.nanoTime() - startTime) / 1e9);
+    }
+
+    // Page through every user's messages and check each one is there, in order
+    private static void check(LogMessageStore store, int messages, int writers, int usersPerWriter) {
+        int total = 0;
+        for (int u = 0; u < writers * usersPerWriter; u++) {
+            String user = "user" + u;
+            long cursor = 0;
+            int previous = -1;
+            MessagePage page;
+            do {
+                page = store.retrieveMessages(user, cursor, 997);
+                for (String message : page.getMessages()) {
+                    int number = Integer.parseInt(message.substring("message ".length()));
+                    if (number <= previous || number % writers != u / usersPerWriter) {
+                        throw new AssertionError("Bad message for " + user + ": " + message);
+                    }
+                    previous = number;
+                }
+                total += page.getMessages().size();
+                cursor = page.getNextSequence();
+            } while (page.hasMore());
+            if (cursor != store.retrieveMessages(user).size()) {
+                throw new AssertionError("Paging and full retrieval disagree for " + user);
+            }
+        }
+        if (total != messages) {
+            throw new AssertionError("Expected " + messages + " messages, found " + total);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+// Work measured by bench.MandelbrotBenchmark. JMH cannot generate benchmarks
+// for the default package, and classes in a named package cannot refer to
+// ones in the default package, so the benchmark looks these factories up by
+// reflection once per trial and then only calls the returned Suppliers.
+public final class MandelbrotBenchmarkTargets {
+
+  private MandelbrotBenchmarkTargets() {
+  }
+
+  // The views benchmarked: the full set, a boundary-heavy zoom where counts
+  // vary wildly between neighbours, and an interior-heavy zoom where most
+  // points run to the limit
+  public static Viewport view(String name) {
+    switch (name) {
+      case "full":
+        return new Viewport(-2.25, -1.8, 3.0, 3.3);
+      case "boundary":
+        return new Viewport(-0.7485, 0.0995, 0.002, 0.002);
+      case "interior":
+        return new Viewport(-0.3, -0.3, 0.4, 0.4);
+      default:
+        throw new IllegalArgumentException("Unknown view: " + name);
+    }
+  } // view
+
+  // The named kernel alone over a size x size grid of the view, one row at a
+  // time on the calling thread
+  public static Supplier<int[]> kernelGrid(String viewName, String kernelName, int size,
+      int maxIterations) {
+    Viewport v = view(viewName);
+    MandelbrotKernel kernel = MandelbrotKernel.forName(kernelName);
+    double da = v.getWidth() / size;
+    double db = v.getHeight() / size;
+    int[] out = new int[size * size];
+    return () -> {
+      for (int i = 0; i < size; i++) {
+        kernel.escapeTimes(v.getX1(), da, 0, size, v.getY1() + i * db, maxIterations, out, i * size);
+      }
+      return out;
+    };
+  } // kernelGrid
+
+  // A whole size x size frame of the view through MandelbrotRenderer
+  public static Supplier<int[]> frame(String viewName, ForkJoinPool pool, int tileSize, int size,
+      int maxIterations) {
+    Viewport v = view(viewName);
+    MandelbrotRenderer renderer = new MandelbrotRenderer(pool, tileSize);
+    return () -> renderer.render(v, size, size, maxIterations);
+  } // frame
+}
+// class MandelbrotBenchmarkTargets
@@ -0,0 +1,30 @@
+// Escape-time kernel computing a row of pixels at a time, so that
+// implementations can process several pixels per instruction.
+public interface MandelbrotKernel {
+
+  // Write the escape times of the points (x1 + j * da) + bi, for columns j from
+  // 'from' (inclusive) to 'to' (exclusive), into out[offset], out[offset + 1], ...
+  void escapeTimes(double x1, double da, int from, int to, double b, int maxIterations,
+      int[] out, int offset);
+
+  // Kernel selected by the mandelbrot.kernel system property ("scalar" or
+  // "vector"), falling back to the scalar kernel
+  static MandelbrotKernel fromProperty() {
+    return forName(System.getProperty("mandelbrot.kernel", "scalar"));
+  } // fromProperty
+
+  // Look up a kernel by name. The vector kernel needs the jdk.incubator.vector
+  // module (--add-modules jdk.incubator.vector); without it, or on an unknown
+  // name, the scalar kernel is returned.
+  static MandelbrotKernel forName(String name) {
+    if ("vector".equalsIgnoreCase(name)) {
+      try {
+        return (MandelbrotKernel) Class.forName("VectorKernel").getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError e) {
+        System.err.println("Vector kernel unavailable, using scalar kernel: " + e);
+      }
+    }
+    return ScalarKernel.INSTANCE;
+  } // forName
+}
+// interface MandelbrotKernel
@@ -0,0 +1,418 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless Mandelbrot render engine. The image is split into square tiles which
+// are scheduled on a work-stealing ForkJoinPool, so throughput follows the
+// number of cores rather than a fixed thread count. Nothing here needs a
+// display, so it can run on headless servers.
+//
+// Progressive renders are tagged with a generation number. Starting a new one
+// (or calling cancel) makes every task of the previous generation stale, and
+// stale tasks stop at the next row without writing further pixels.
+//
+// Tiles are laid out on a grid that is fixed for each zoom level: pixel
+// centres are snapped to whole multiples of the pixel size. A tile therefore
+// covers the same points whichever view it is part of, which lets an optional
+// TileCache serve revisited and panned areas without recomputing them.
+//
+// Deep zooms given as a DeepViewport are rendered with a PerturbationKernel
+// built for the view's centre; their tiles are never cached.
+public class MandelbrotRenderer {
+  public static final int DEFAULT_TILE_SIZE = 64;
+  // Each preview pixel stands for a PREVIEW_STEP x PREVIEW_STEP block
+  public static final int PREVIEW_STEP = 8;
+
+  private final ForkJoinPool pool;
+  private final int tileSize;
+  private final MandelbrotKernel kernel;
+  private final TileCache cache; // null if tiles are not cached
+  private final AtomicLong generation = new AtomicLong(); // current progressive render
+
+  // Renderer on the common pool, using the kernel named by mandelbrot.kernel
+  public MandelbrotRenderer() {
+    this(ForkJoinPool.commonPool(), DEFAULT_TILE_SIZE, MandelbrotKernel.fromProperty());
+  } // constructor
+
+  public MandelbrotRenderer(ForkJoinPool pool, int tileSize) {
+    this(pool, tileSize, MandelbrotKernel.fromProperty());
+  } // constructor
+
+  public MandelbrotRenderer(ForkJoinPool pool, int tileSize, MandelbrotKernel kernel) {
+    this(pool, tileSize, kernel, null);
+  } // constructor
+
+  public MandelbrotRenderer(ForkJoinPool pool, int tileSize, MandelbrotKernel kernel, TileCache cache) {
+    if (tileSize <= 0) {
+      throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+    }
+    this.pool = pool;
+    this.tileSize = tileSize;
+    this.kernel = kernel;
+    this.cache = cache;
+  } // constructor
+
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  public MandelbrotKernel getKernel() {
+    return kernel;
+  }
+
+  public TileCache getCache() {
+    return cache;
+  }
+
+  // Generation of the most recently started progressive render
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  // Number of tiles a render of the viewport at xsize by ysize is split into
+  public int tileCount(Viewport view, int xsize, int ysize) {
+    return new TileGrid(view, xsize, ysize, tileSize).tileCount();
+  } // tileCount
+
+  // Render the viewport at the given resolution, returning the escape-time
+  // iteration count of every pixel in row-major order (index y * xsize + x)
+  public int[] render(Viewport view, int xsize, int ysize, int maxIterations) {
+    checkSize(xsize, ysize);
+    if (maxIterations <= 0) {
+      throw new IllegalArgumentException("Iteration limit must be positive: " + maxIterations);
+    }
+    int[] counts = new int[xsize * ysize];
+    Job job = new Job(view, xsize, ysize, maxIterations, null, counts, null, tileSize);
+    pool.invoke(new TileTask(job, 0, job.tileCount(), false));
+    return counts;
+  } // render
+
+  // Render a deep zoom, returning iteration counts in row-major order. The
+  // reference orbit is computed first, then the tiles in parallel.
+  public int[] render(DeepViewport view, int xsize, int ysize, int maxIterations) {
+    checkSize(xsize, ysize);
+    if (maxIterations <= 0) {
+      throw new IllegalArgumentException("Iteration limit must be positive: " + maxIterations);
+    }
+    int[] counts = new int[xsize * ysize];
+    Job job = new Job(view.offsets(), xsize, ysize, maxIterations, null, counts, null, tileSize);
+    job.kernel = new PerturbationKernel(view, xsize, ysize, maxIterations);
+    pool.invoke(new TileTask(job, 0, job.tileCount(), false));
+    return counts;
+  } // render
+
+  // Render fractional (smooth) iteration counts in row-major order, for
+  // colouring without visible escape bands
+  public float[] renderSmooth(Viewport view, int xsize, int ysize, int maxIterations) {
+    checkSize(xsize, ysize);
+    if (maxIterations <= 0) {
+      throw new IllegalArgumentException("Iteration limit must be positive: " + maxIterations);
+    }
+    float[] smooth = new float[xsize * ysize];
+    Job job = new Job(view, xsize, ysize, maxIterations, null, null, smooth, tileSize);
+    pool.invoke(new TileTask(job, 0, job.tileCount(), false));
+    return smooth;
+  } // renderSmooth
+
+  // Render the viewport straight into a row-major buffer of ARGB pixels, using
+  // the palette to colour each pixel as it is computed
+  public void render(Viewport view, int xsize, int ysize, Palette palette, int[] argb) {
+    checkSize(xsize, ysize);
+    if (argb.length < xsize * ysize) {
+      throw new IllegalArgumentException("Pixel buffer too small for " + xsize + "x" + ysize);
+    }
+    Job job = new Job(view, xsize, ysize, palette.getMaxIterations(), palette, argb, null, tileSize);
+    pool.invoke(new TileTask(job, 0, job.tileCount(), false));
+  } // render
+
+  // Render the viewport into an image backed by a DataBufferInt (TYPE_INT_RGB
+  // or TYPE_INT_ARGB). Workers write into the image's pixel array directly.
+  public void render(Viewport view, BufferedImage image, int maxIterations) {
+    render(view, image.getWidth(), image.getHeight(), Palette.forLimit(maxIterations), pixels(image));
+  } // render
+
+  // Start rendering in the background and return its generation number. A
+  // coarse preview of the whole image is drawn first, then each full tile is
+  // reported to the listener as soon as it is written. Any render still in
+  // progress is cancelled.
+  public long renderProgressive(Viewport view, int xsize, int ysize, Palette palette, int[] argb,
+      RenderListener listener) {
+    checkSize(xsize, ysize);
+    if (argb.length < xsize * ysize) {
+      throw new IllegalArgumentException("Pixel buffer too small for " + xsize + "x" + ysize);
+    }
+    long g = generation.incrementAndGet();
+    Job job = new Job(view, xsize, ysize, palette.getMaxIterations(), palette, argb, null, tileSize);
+    job.generation = g;
+    job.listener = listener;
+    pool.execute(new ProgressiveTask(job));
+    return g;
+  } // renderProgressive
+
+  // Progressive render of a deep zoom. The reference orbit is computed by the
+  // pool, not by the calling thread.
+  public long renderProgressive(DeepViewport view, int xsize, int ysize, Palette palette, int[] argb,
+      RenderListener listener) {
+    checkSize(xsize, ysize);
+    if (argb.length < xsize * ysize) {
+      throw new IllegalArgumentException("Pixel buffer too small for " + xsize + "x" + ysize);
+    }
+    long g = generation.incrementAndGet();
+    Job job = new Job(view.offsets(), xsize, ysize, palette.getMaxIterations(), palette, argb, null,
+        tileSize);
+    job.generation = g;
+    job.listener = listener;
+    job.deep = view;
+    pool.execute(new ProgressiveTask(job));
+    return g;
+  } // renderProgressive
+
+  // Compute every pixel of grid tile (tx, ty) at the grid's zoom level,
+  // returning tileSize * tileSize iteration counts in row-major order. This is
+  // the unit of work that is cached and handed to remote workers.
+  public int[] renderTile(TileGrid grid, long tx, long ty, int maxIterations) {
+    if (grid.getTileSize() != tileSize) {
+      throw new IllegalArgumentException("Grid tile size " + grid.getTileSize() + " is not " + tileSize);
+    }
+    return renderTile(grid.tileOriginA(tx), grid.getPixelWidth(), grid.tileOriginB(ty),
+        grid.getPixelHeight(), maxIterations);
+  } // renderTile
+
+  // Compute a full tile whose first pixel is the point a0 + b0 i
+  public int[] renderTile(double a0, double da, double b0, double db, int maxIterations) {
+    if (maxIterations <= 0) {
+      throw new IllegalArgumentException("Iteration limit must be positive: " + maxIterations);
+    }
+    return computeTile(kernel, a0, da, b0, db, maxIterations, null);
+  } // renderTile
+
+  // Full tile starting at the point a0 + b0 i, or null if the job went stale
+  private int[] computeTile(MandelbrotKernel kernel, double a0, double da, double b0, double db,
+      int maxIterations, Job job) {
+    int[] counts = new int[tileSize * tileSize];
+    for (int r = 0; r < tileSize; r++) {
+      if (job != null && isStale(job)) {
+        return null;
+      }
+      kernel.escapeTimes(a0, da, 0, tileSize, b0 + r * db, maxIterations, counts, r * tileSize);
+    }
+    return counts;
+  } // computeTile
+
+  // Abandon the progressive render in progress, if any
+  public void cancel() {
+    generation.incrementAndGet();
+  } // cancel
+
+  private boolean isStale(Job job) {
+    return job.generation != 0 && job.generation != generation.get();
+  } // isStale
+
+  // The backing pixel array of an integer-packed image
+  static int[] pixels(BufferedImage image) {
+    int type = image.getType();
+    if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+      throw new IllegalArgumentException("Image must be TYPE_INT_RGB or TYPE_INT_ARGB");
+    }
+    return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+  } // pixels
+
+  private static void checkSize(int xsize, int ysize) {
+    if (xsize <= 0 || ysize <= 0) {
+      throw new IllegalArgumentException("Image size must be positive: " + xsize + "x" + ysize);
+    }
+  } // checkSize
+
+  // Compute one tile, writing counts or colours into its own rows of the
+  // shared buffer. Tiles never overlap, so no locking is needed.
+  private void renderTile(Job job, int tile) {
+    TileGrid grid = job.grid;
+    long tx = grid.tileX(tile);
+    long ty = grid.tileY(tile);
+    // tile bounds within the image
+    int x0 = grid.imageX0(tx), x1 = grid.imageX1(tx);
+    int y0 = grid.imageY0(ty), y1 = grid.imageY1(ty);
+    // first image column and row in tile coordinates
+    int cx = grid.tileColumn(tx, x0);
+    int cy = grid.tileRow(ty, y0);
+    double a0 = grid.tileOriginA(tx);
+    double b0 = grid.tileOriginB(ty);
+    double da = grid.getPixelWidth();
+    double db = grid.getPixelHeight();
+
+    if (job.smooth != null) {
+      for (int i = y0; i < y1; i++) {
+        double b = b0 + (cy + i - y0) * db;
+        int row = i * job.xsize;
+        for (int j = x0; j < x1; j++) {
+          job.smooth[row + j] = (float) ScalarKernel.smoothEscapeTime(a0 + (cx + j - x0) * da, b,
+              job.maxIterations);
+        }
+      }
+    } else if (job.cacheable()) {
+      TileCache.Key key = new TileCache.Key(da, db, job.maxIterations, tileSize, tx, ty);
+      int[] counts = cache.get(key);
+      if (counts == null) {
+        counts = computeTile(job.kernel, a0, da, b0, db, job.maxIterations, job);
+        if (counts == null) {
+          return;
+        }
+        cache.put(key, counts);
+      }
+      grid.copyTile(tx, ty, counts, job.out, job.palette);
+    } else {
+      for (int i = y0; i < y1; i++) {
+        if (isStale(job)) {
+          return;
+        }
+        double b = b0 + (cy + i - y0) * db;
+        int row = i * job.xsize;
+        job.kernel.escapeTimes(a0, da, cx, cx + x1 - x0, b, job.maxIterations, job.out, row + x0);
+        if (job.palette != null) {
+          for (int j = row + x0; j < row + x1; j++) {
+            job.out[j] = job.palette.argb(job.out[j]);
+          }
+        }
+      }
+    }
+    if (job.listener != null && !isStale(job)) {
+      job.listener.tileRendered(job.generation, x0, y0, x1 - x0, y1 - y0, false);
+    }
+  } // renderTile
+
+  // Compute one pixel in every PREVIEW_STEP x PREVIEW_STEP block of a tile and
+  // fill the block with its colour
+  private void renderPreviewTile(Job job, int tile) {
+    TileGrid grid = job.grid;
+    long tx = grid.tileX(tile);
+    long ty = grid.tileY(tile);
+    int x0 = grid.imageX0(tx), x1 = grid.imageX1(tx);
+    int y0 = grid.imageY0(ty), y1 = grid.imageY1(ty);
+    int samples = (x1 - x0 + PREVIEW_STEP - 1) / PREVIEW_STEP;
+    int[] row = new int[samples];
+
+    for (int i = y0; i < y1; i += PREVIEW_STEP) {
+      if (isStale(job)) {
+        return;
+      }
+      double b = grid.pixelB(i);
+      for (int k = 0; k < samples; k++) {
+        job.kernel.escapeTimes(grid.pixelA(x0 + k * PREVIEW_STEP), 0.0, 0, 1, b, job.maxIterations, row, k);
+        row[k] = job.palette.argb(row[k]);
+      }
+      int blockEnd = Math.min(i + PREVIEW_STEP, y1);
+      for (int l = i; l < blockEnd; l++) {
+        int offset = l * job.xsize;
+        for (int j = x0; j < x1; j++) {
+          job.out[offset + j] = row[(j - x0) / PREVIEW_STEP];
+        }
+      }
+    }
+    if (!isStale(job)) {
+      job.listener.tileRendered(job.generation, x0, y0, x1 - x0, y1 - y0, true);
+    }
+  } // renderPreviewTile
+
+  // Inner classes
+
+  // Parameters of a single render call, shared by all of its tiles
+  private class Job {
+    final int xsize;
+    final int ysize;
+    final int maxIterations;
+    final Palette palette; // null when writing raw iteration counts
+    final int[] out;
+    final float[] smooth; // set instead of out for fractional counts
+    final TileGrid grid;
+
+    Job(Viewport view, int xsize, int ysize, int maxIterations, Palette palette, int[] out,
+        float[] smooth, int tileSize) {
+      this.xsize = xsize;
+      this.ysize = ysize;
+      this.maxIterations = maxIterations;
+      this.palette = palette;
+      this.out = out;
+      this.smooth = smooth;
+      grid = new TileGrid(view, xsize, ysize, tileSize);
+    } // constructor
+
+    int tileCount() {
+      return grid.tileCount();
+    }
+
+    // Only tiles computed by the renderer's own kernel are shared through the
+    // cache; other kernels' coordinates are relative to their own reference
+    boolean cacheable() {
+      return cache != null && grid.isSnapped() && smooth == null
+          && kernel == MandelbrotRenderer.this.kernel;
+    } // cacheable
+
+    long generation; // 0 for renders that cannot be cancelled
+    RenderListener listener;
+    MandelbrotKernel kernel = MandelbrotRenderer.this.kernel;
+    DeepViewport deep; // set if the kernel must be built for a deep zoom
+  } // inner class Job
+
+  // Preview pass over every tile, then the full-resolution pass
+  private class ProgressiveTask extends RecursiveAction {
+    private final Job job;
+
+    ProgressiveTask(Job job) {
+      this.job = job;
+    } // constructor
+
+    @Override
+    protected void compute() {
+      if (job.deep != null) {
+        job.kernel = new PerturbationKernel(job.deep, job.xsize, job.ysize, job.maxIterations);
+        if (isStale(job)) {
+          return;
+        }
+      }
+      int tiles = job.tileCount();
+      new TileTask(job, 0, tiles, true).invoke();
+      if (isStale(job)) {
+        return;
+      }
+      new TileTask(job, 0, tiles, false).invoke();
+      if (!isStale(job)) {
+        job.listener.renderComplete(job.generation);
+      }
+    } // compute
+  } // inner class ProgressiveTask
+
+  // Recursively halves a range of tile indices so idle workers can steal work
+  private class TileTask extends RecursiveAction {
+    private final Job job;
+    private final int from;
+    private final int to;
+    private final boolean preview;
+
+    TileTask(Job job, int from, int to, boolean preview) {
+      this.job = job;
+      this.from = from;
+      this.to = to;
+      this.preview = preview;
+    } // constructor
+
+    @Override
+    protected void compute() {
+      if (isStale(job)) {
+        return;
+      }
+      if (to - from == 1) {
+        if (preview) {
+          renderPreviewTile(job, from);
+        } else {
+          renderTile(job, from);
+        }
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(new TileTask(job, from, mid, preview), new TileTask(job, mid, to, preview));
+      }
+    } // compute
+  } // inner class TileTask
+}
+// class MandelbrotRenderer
@@ -1,142 +1,116 @@
 import java.applet.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.concurrent.*; //concurrrent package for creation of pool threads etc
-import java.util.List; //lists package for the different list methods to be called
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MandelbrotThr extends Applet
-    implements Runnable, MouseListener, MouseMotionListener {
+    implements RenderListener, MouseListener, MouseMotionListener {
   private int xsize; // dimensions of window
   private int ysize;
-  private int taskSize;
-  private final int NUM_TASKS = 100;
-  private Thread master;
-  private long startTime;
-  private ExecutorService executor; // executor to be used in our image generation
-
-  // initial region for which Mandelbrot is being computed
-  private double x1 = -2.25;
-  private double x2 = 3.0;
-  private double y1 = -1.8;
-  private double y2 = 3.3;
-
-  private boolean done = false; // computation finished?
-  private int progress; // number of scan lines
+  private int maxIterations = 100; // escape-time iteration limit
+  private final long CACHE_BYTES = 64L << 20; // memory budget for cached tiles
+  private volatile int numTiles;
+  private volatile long startTime;
+  private MandelbrotRenderer renderer; // headless engine doing the computation
+
+  // initial region for which Mandelbrot is being computed; the centre is kept
+  // in arbitrary precision so zooming can continue past double precision
+  private volatile DeepViewport view = new DeepViewport(new Viewport(-2.25, -1.8, 3.0, 3.3));
+
+  private volatile boolean done = false; // computation finished?
+  private final AtomicInteger progress = new AtomicInteger(); // number of tiles displayed
   private boolean drag = false; // user dragging zoom box?
 
-  // off-screen buffer and graphics
-  private Image offscreen;
-  private Graphics offg;
+  // off-screen buffer; the renderer writes straight into its pixels. A new one
+  // is created for each image so a cancelled render can never draw into it.
+  private volatile BufferedImage offscreen;
 
   public void init() {
     xsize = getSize().width;
     ysize = getSize().height;
     System.out.println("xsize = " + xsize + " ysize = " + ysize);
-    taskSize = ysize / NUM_TASKS;
 
     // set up listeners
     this.addMouseListener(this);
     this.addMouseMotionListener(this);
 
-    // initialise the Executor Service with the task number of threads
-    executor = Executors.newFixedThreadPool(NUM_TASKS);
+    // tiles are scheduled on the common work-stealing pool and cached so that
+    // zooming back out does not recompute them
+    renderer = new MandelbrotRenderer(ForkJoinPool.commonPool(), MandelbrotRenderer.DEFAULT_TILE_SIZE,
+        MandelbrotKernel.fromProperty(), new TileCache(CACHE_BYTES));
   } // init
 
-  public void start() { // create offscreen buffer
-    offscreen = createImage(xsize, ysize);
-    if (offscreen == null) {
-      System.err.println("ERROR: Cannot create offscreen image.");
-      System.exit(1);
-    }
-    offg = offscreen.getGraphics();
-    offg.setColor(Color.black);
-    offg.fillRect(0, 0, xsize, ysize);
-
-    // spawn thread to handle computations
-    if (master == null) {
-      master = new Thread(this);
-      master.start();
-    }
+  public void start() {
+    generateImage();
   } // start
 
-  public void run() {
-    while (true) {
-      while (done) {
-        try {
-          Thread.sleep(500);
-        } catch (InterruptedException e) { // ignore
-        }
-      }
-      generateImage();
-    }
-  } // run
+  public void stop() {
+    renderer.cancel();
+  } // stop
 
+  // Start rendering the current view in the background, abandoning any
+  // render still in progress. Tiles are drawn as they arrive.
   private void generateImage() {
     startTime = System.currentTimeMillis();
-    List<Future<byte[][]>> futures = new ArrayList<>(); // creation of arraylist containing our future "threads" to return values
-
-    for (int i = 0; i < ysize; i += taskSize) { // Start thread
-      Callable<byte[][]> worker = new WorkerThread(i, i + taskSize);
-      Future<byte[][]> future = executor.submit(worker);  
-      futures.add(future);   //results collection
+    progress.set(0);
+    done = false;
+    BufferedImage image = new BufferedImage(xsize, ysize, BufferedImage.TYPE_INT_RGB);
+    offscreen = image;
+    Palette palette = Palette.forLimit(maxIterations);
+    if (view.needsPerturbation(xsize, ysize)) {
+      // deep zoom: pixels are perturbations of a high-precision reference orbit
+      numTiles = renderer.tileCount(view.offsets(), xsize, ysize);
+      renderer.renderProgressive(view, xsize, ysize, palette, MandelbrotRenderer.pixels(image), this);
+    } else {
+      Viewport v = view.toViewport();
+      numTiles = renderer.tileCount(v, xsize, ysize);
+      renderer.renderProgressive(v, xsize, ysize, palette, MandelbrotRenderer.pixels(image), this);
     }
-    waitForResults(futures);
+    repaint();
   } // generateImage
 
-  private void waitForResults(List<Future<byte[][]>> futures) {
-    progress = 0;
-    List<byte[][]> results = new ArrayList<>();
-    for (int i = 0; i < ysize; i += taskSize) {
-      Future<byte[][]> future = futures.get(i / taskSize); // Get future for current row
-      try {
-        results.add(future.get()); // Get results from future
-      } catch (InterruptedException | ExecutionException e) {
-        e.printStackTrace();
+  public void tileRendered(long generation, int x, int y, int width, int height, boolean preview) {
+    if (generation == renderer.getGeneration()) {
+      if (!preview) {
+        progress.incrementAndGet();
       }
+      repaint();
     }
+  } // tileRendered
 
-    for (int i = 0; i < ysize; i += taskSize) {
-      display(results.get(i / taskSize), i); // Call display with results and starting row
+  public void renderComplete(long generation) {
+    if (generation == renderer.getGeneration()) {
+      done = true;
+      long end = System.currentTimeMillis();
+      System.out.println("Time taken: " + (end - startTime) + "ms. " + renderer.getCache());
+      repaint();
     }
-
-    done = true;
-    long end = System.currentTimeMillis();
-    System.out.println("Time taken: " + (end - startTime) + "ms.");
-    repaint();
-  }
+  } // renderComplete
 
   public void mouseDragged(MouseEvent e) {
     int x = e.getX();
     int y = e.getY();
-    if (done) {
-      drag = true;
-      Graphics g = this.getGraphics();
-      g.drawImage(offscreen, 0, 0, this);
-      g.setColor(Color.white);
-      g.drawRect(x - xsize / 4, y - ysize / 4, xsize / 2, ysize / 2);
-    }
+    drag = true;
+    Graphics g = this.getGraphics();
+    g.drawImage(offscreen, 0, 0, this);
+    g.setColor(Color.white);
+    g.drawRect(x - xsize / 4, y - ysize / 4, xsize / 2, ysize / 2);
   } // mouseDragged
 
   public void mouseReleased(MouseEvent e) {
     int x = e.getX();
     int y = e.getY();
-    if (done) {
-      x1 += ((float) x / (float) xsize) * x2;
-      y1 += ((float) y / (float) ysize) * y2;
-      x2 /= 2.0;
-      y2 /= 2.0;
-      x1 -= x2 / 2.0;
-      y1 -= y2 / 2.0;
-      done = false;
-      drag = false;
-      offg.setColor(Color.black);
-      offg.fillRect(0, 0, xsize, ysize);
-      progress = 0;
-      repaint();
-      // generateImage();
+    // zooming mid-render cancels the tiles still in flight; the right button
+    // zooms back out
+    if (e.getButton() == MouseEvent.BUTTON3) {
+      view = view.zoomOut(x, y, xsize, ysize);
+    } else {
+      view = view.zoom(x, y, xsize, ysize);
     }
+    drag = false;
+    generateImage();
   } // mouseReleased
 
   public void update(Graphics g) {
@@ -154,44 +128,18 @@ public class MandelbrotThr extends Applet
           g.drawImage(offscreen, 0, 0, this);
         g.setColor(Color.white);
         g.drawRect(xsize / 4, 10, xsize / 2, 5);
-        g.fillRect(xsize / 4, 11, (progress * (xsize / 2)) / NUM_TASKS, 4);
+        g.fillRect(xsize / 4, 11, (progress.get() * (xsize / 2)) / numTiles, 4);
       }
     }
   } // paint
 
-  private Color getPixelColour(int val) {
-    Color colour;
-
-    if (val == 100)
-      colour = new Color(0, 0, 0);
-    else if (val > 90)
-      colour = new Color(val * 2, 0, (val - 90) * 25);
-    else if (val > 80)
-      colour = new Color(val * 2, 0, 0);
-    else if (val > 60)
-      colour = new Color(val * 3, 0, val);
-    else if (val > 20)
-      colour = new Color(val * 4, 0, val * 2);
-    else if (val > 10)
-      colour = new Color(val * 5, 0, val * 10);
-    else
-      colour = new Color(0, 0, val * 20);
-    return colour;
-  } // getPixelColour
-
-  private synchronized void display(byte[][] points, int start) {
-    int j = 0;
-    for (int l = start; j < taskSize; j++, l++) {
-      for (int k = 0; k < xsize; k++) {
-        int n = points[k][j];
-        Color pixelColour = getPixelColour(points[k][j]);
-        offg.setColor(pixelColour);
-        offg.fillRect(k, l, 1, 1);
-      }
+  // Set the iteration limit; takes effect from the next image generated
+  public void setMaxIterations(int maxIterations) {
+    if (maxIterations <= 0) {
+      throw new IllegalArgumentException("Iteration limit must be positive: " + maxIterations);
     }
-    progress += 1;
-    repaint();
-  } // display
+    this.maxIterations = maxIterations;
+  } // setMaxIterations
 
   public void mousePressed(MouseEvent e) {
   }
@@ -211,7 +159,10 @@ public class MandelbrotThr extends Applet
   public static void main(String args[]) {
     Frame f = new Frame("Mandelbrot applet");
     f.addWindowListener(new WindowCloser());
-    Applet a = new MandelbrotThr();
+    MandelbrotThr a = new MandelbrotThr();
+    if (args.length > 0) {
+      a.setMaxIterations(Integer.parseInt(args[0]));
+    }
     a.setSize(800, 800);
     f.setSize(800, 800);
     f.add(a, BorderLayout.CENTER);
@@ -229,51 +180,5 @@ public class MandelbrotThr extends Applet
     }
   } // inner class WindowCloser
 
-  private class WorkerThread implements Callable<byte[][]> {
-
-    private int start;
-    private int end;
-
-    public WorkerThread(int start, int end) {
-      this.start = start;
-      this.end = end;
-    } // constructor
-
-    private byte[][] calculateMandelbrot() {
-      double x, y, xx, a, b = y1, da = x2 / xsize, db = y2 / ysize;
-      byte[][] results = new byte[xsize][end - start];
-
-      for (int i = 0; i < start; i++) {
-        b = b + db;
-      }
-
-      int k = 0;
-
-      for (int i = start; i < end; i++, k++) {
-        a = x1;
-        for (int j = 0; j < xsize; j++) {
-          byte n = 0;
-          x = 0.0;
-          y = 0.0;
-          while ((n < 100) && ((x * x) + (y * y) < 4.0)) {
-            xx = x * x - y * y + a;
-            y = 2 * x * y + b;
-            x = xx;
-            n++;
-          }
-          results[j][k] = n;
-          a = a + da;
-        }
-        b = b + db;
-      }
-      return results;
-    } // calculateMandelbrot
-
-    @Override
-    public byte[][] call() {
-      return calculateMandelbrot();
-    } // run
-  } // inner class WindowCloser
-
 }
 // class MandelbrotThr
@@ -1,28 +1,94 @@
 import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 
 
-// Client application to interact with the MessageService
-public class MessageClient {
+// Client application to interact with the MessageService. Messages typed are
+// collected and sent in one batch. New messages are pushed to the client
+// through a MessageListener; it fetches from the service only to catch up when
+// it subscribes and when a push shows it missed messages.
+public class MessageClient implements MessageListener {
+
+    private final MessageService messageService;
+    private final String username;
+    private long nextSequence; // Sequence number of the next message not yet printed
+
+    private MessageClient(MessageService messageService, String username) {
+        this.messageService = messageService;
+        this.username = username;
+    }
+
+    // Print the pushed messages not seen yet, or fetch the ones missed before them
+    @Override
+    public synchronized void messagesStored(String username, MessagePage page) throws RemoteException {
+        if (page.getFirstSequence() > nextSequence) {
+            fetch();
+        } else {
+            print(page);
+        }
+    }
+
+    // Retrieve and print the messages stored since the last one printed
+    private synchronized void fetch() throws RemoteException {
+        MessagePage page;
+        do {
+            page = messageService.retrieveMessagesSince(username, nextSequence);
+            print(page);
+        } while (page.hasMore());
+    }
+
+    private void print(MessagePage page) {
+        List<String> messages = page.getMessages();
+        for (int i = (int) Math.max(0, nextSequence - page.getFirstSequence()); i < messages.size(); i++) {
+            System.out.println(username + ": " + messages.get(i));
+        }
+        nextSequence = Math.max(nextSequence, page.getNextSequence());
+    }
+
     public static void main(String[] args) {
         try {
-            MessageService messageService = (MessageService) Naming.lookup("rmi://localhost/MessageService");
+            // -Dmessage.transport=wire talks to the server's MessageWireServer
+            // instead of looking up the RMI binding
+            boolean wire = "wire".equals(System.getProperty("message.transport"));
+            MessageService messageService = wire
+                    ? new MessageWireClient("localhost", Integer.getInteger("message.wire.port", MessageWireServer.DEFAULT_PORT))
+                    : (MessageService) Naming.lookup("rmi://localhost/MessageService");
             Scanner scanner = new Scanner(System.in);
 
             System.out.print("Enter your username: ");
             String username = scanner.nextLine();
 
-            // Store a message
-            System.out.print("Enter a message to store: ");
-            String message = scanner.nextLine();
-            messageService.storeMessage(username, message);
+            // Subscribe first, then catch up, so no message falls in between
+            MessageClient client = new MessageClient(messageService, username);
+            // Over the wire protocol, pushes arrive on the client's own connection
+            MessageListener listener = wire ? client : (MessageListener) UnicastRemoteObject.exportObject(client, 0);
+            messageService.subscribe(username, listener);
+            client.fetch();
+
+            List<String> batch = new ArrayList<>();
+            System.out.println("Enter messages to store, an empty line to send them, or quit to exit.");
+            while (scanner.hasNextLine()) {
+                String line = scanner.nextLine();
+                if (line.equals("quit")) {
+                    break;
+                }
+                if (!line.isEmpty()) {
+                    batch.add(line);
+                } else if (!batch.isEmpty()) {
+                    // Store the messages entered since the last empty line
+                    messageService.storeMessages(username, batch);
+                    batch = new ArrayList<>();
+                }
+            }
 
-            // Retrieve messages
-            List<String> messages = messageService.retrieveMessages(username);
-            System.out.println("Messages for " + username + ":");
-            for (String msg : messages) {
-                System.out.println(msg);
+            messageService.unsubscribe(username, listener);
+            if (wire) {
+                ((MessageWireClient) messageService).close();
+            } else {
+                UnicastRemoteObject.unexportObject(client, true);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,229 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Pushes stored messages to the MessageListeners subscribed to their user.
+//
+// publish never blocks: each subscriber has a bounded queue of stored batches,
+// and a batch that does not fit is dropped and remembered as a gap. A
+// subscriber with queued batches is run on the delivery pool, one thread at a
+// time per subscriber, so a slow listener holds up only its own deliveries.
+// Each run takes everything queued since the last callback and merges batches
+// with consecutive sequence numbers into one page, so the busier a user, the
+// fewer remote calls per message. A listener whose callback fails is
+// unsubscribed, unless it has subscribed again since its last failure.
+public class MessageDispatcher {
+
+    private static final Logger LOG = Logger.getLogger(MessageDispatcher.class.getName());
+
+    static final int QUEUE_CAPACITY = 256; // Batches per subscriber
+
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService delivery = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "MessageDispatcher delivery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Subscriptions for a user are only changed inside compute on its map
+    // entry, so a subscribe cannot add to a list that remove is dropping.
+    // Subscribing a listener that is already subscribed renews the existing
+    // subscription, which then survives its next failed callback: a client
+    // that reconnects and subscribes again may do so before the server has
+    // seen the old connection fail.
+    public void subscribe(String username, MessageListener listener) {
+        Subscriber subscriber = new Subscriber(username, listener);
+        subscribers.compute(username, (k, listeners) -> {
+            if (listeners == null) {
+                listeners = new CopyOnWriteArrayList<>();
+            }
+            for (Subscriber existing : listeners) {
+                if (existing.equals(subscriber)) {
+                    existing.renewed = true;
+                    return listeners;
+                }
+            }
+            listeners.add(subscriber);
+            return listeners;
+        });
+    }
+
+    public void unsubscribe(String username, MessageListener listener) {
+        Subscriber subscriber = new Subscriber(username, listener);
+        remove(username, s -> s.equals(subscriber));
+    }
+
+    // Queue messages stored for the user, the first with the given sequence
+    // number, for each of its subscribers
+    public void publish(String username, long firstSequence, List<String> messages) {
+        List<Subscriber> listeners = subscribers.get(username);
+        if (listeners == null || listeners.isEmpty() || messages.isEmpty()) {
+            return;
+        }
+        Batch batch = new Batch(firstSequence, new ArrayList<>(messages));
+        for (Subscriber subscriber : listeners) {
+            subscriber.offer(batch);
+        }
+    }
+
+    public void shutdown() {
+        delivery.shutdownNow();
+    }
+
+    private void remove(String username, Predicate<Subscriber> which) {
+        subscribers.computeIfPresent(username, (k, listeners) -> {
+            listeners.removeIf(which);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    // Merge batches with consecutive sequence numbers into pages
+    static List<MessagePage> coalesce(List<Batch> batches) {
+        batches.sort(Comparator.comparingLong(b -> b.firstSequence));
+        List<MessagePage> pages = new ArrayList<>();
+        List<String> messages = null;
+        long first = 0;
+        for (Batch batch : batches) {
+            if (messages == null || batch.firstSequence != first + messages.size()) {
+                if (messages != null) {
+                    pages.add(new MessagePage(messages, first, false));
+                }
+                messages = new ArrayList<>();
+                first = batch.firstSequence;
+            }
+            messages.addAll(batch.messages);
+        }
+        if (messages != null) {
+            pages.add(new MessagePage(messages, first, false));
+        }
+        return pages;
+    }
+
+    // Inner classes
+
+    private static final class Batch {
+        final long firstSequence;
+        final List<String> messages;
+
+        Batch(long firstSequence, List<String> messages) {
+            this.firstSequence = firstSequence;
+            this.messages = messages;
+        }
+    }
+
+    // One listener's subscription to one user. Equal to any other
+    // subscription of the same listener to the same user, so RMI stubs for
+    // the same remote object match when unsubscribing.
+    private final class Subscriber implements Runnable {
+        final String username;
+        final MessageListener listener;
+        final ArrayBlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        // Sequence number after the newest dropped message, or -1
+        final AtomicLong droppedUpTo = new AtomicLong(-1);
+        // Whether a delivery run is queued or running
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        // Subscribed again since the last failed callback. Only accessed
+        // inside compute on the user's map entry.
+        boolean renewed;
+
+        Subscriber(String username, MessageListener listener) {
+            this.username = username;
+            this.listener = listener;
+        }
+
+        void offer(Batch batch) {
+            if (!queue.offer(batch)) {
+                droppedUpTo.accumulateAndGet(batch.firstSequence + batch.messages.size(), Math::max);
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                delivery.execute(this);
+            }
+        }
+
+        // Deliver until the queue is empty. After clearing scheduled, check
+        // again, since an offer may have seen the flag still set and left the
+        // batch to this run.
+        // A failed callback drops the subscription, unless it has been
+        // renewed; then the undelivered messages are reported as a gap.
+        @Override
+        public void run() {
+            while (true) {
+                long end = -1; // Sequence number after the messages being delivered
+                try {
+                    while (true) {
+                        List<Batch> batches = new ArrayList<>();
+                        queue.drainTo(batches);
+                        long gap = droppedUpTo.getAndSet(-1);
+                        if (batches.isEmpty() && gap < 0) {
+                            scheduled.set(false);
+                            if ((queue.isEmpty() && droppedUpTo.get() < 0) || !scheduled.compareAndSet(false, true)) {
+                                return;
+                            }
+                            continue;
+                        }
+                        List<MessagePage> pages = coalesce(batches);
+                        end = gap;
+                        for (MessagePage page : pages) {
+                            end = Math.max(end, page.getNextSequence());
+                        }
+                        for (MessagePage page : pages) {
+                            listener.messagesStored(username, page);
+                        }
+                        if (gap >= 0) {
+                            listener.messagesStored(username, new MessagePage(new ArrayList<>(), gap, false));
+                        }
+                    }
+                } catch (RemoteException | RuntimeException e) {
+                    if (!keepAfterFailure()) {
+                        if (LOG.isLoggable(Level.FINE)) {
+                            LOG.log(Level.FINE, "Dropping listener for " + username, e);
+                        }
+                        return;
+                    }
+                    droppedUpTo.accumulateAndGet(end, Math::max);
+                }
+            }
+        }
+
+        // Use up a renewal, or remove this subscription
+        private boolean keepAfterFailure() {
+            boolean[] kept = new boolean[1];
+            subscribers.computeIfPresent(username, (k, listeners) -> {
+                if (renewed && listeners.stream().anyMatch(s -> s == this)) {
+                    renewed = false;
+                    kept[0] = true;
+                    return listeners;
+                }
+                listeners.removeIf(s -> s == this);
+                return listeners.isEmpty() ? null : listeners;
+            });
+            return kept[0];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Subscriber && ((Subscriber) o).username.equals(username)
+                    && ((Subscriber) o).listener.equals(listener);
+        }
+
+        @Override
+        public int hashCode() {
+            return username.hashCode() * 31 + listener.hashCode();
+        }
+    }
+}
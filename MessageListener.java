@@ -0,0 +1,14 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+// Callback a client exports to have new messages pushed to it instead of
+// polling. Pages for a user arrive in order of delivery, not always in
+// sequence order, and a subscriber whose queue overflows loses messages: a
+// page whose first sequence is past the next one the client expected means it
+// missed some, and should fetch them with retrieveMessagesSince. Such a page
+// may be empty, sent only to report the gap.
+public interface MessageListener extends Remote {
+
+    // Method called with messages stored for a subscribed username
+    void messagesStored(String username, MessagePage page) throws RemoteException;
+}
@@ -0,0 +1,41 @@
+import java.io.Serializable;
+import java.util.List;
+
+// One page of a user's messages. Every message in a mailbox has a sequence
+// number, starting at 0 in the order the messages were stored; a page holds
+// consecutive messages from firstSequence on. nextSequence is the cursor for
+// the following page, and hasMore tells whether that page would hold anything
+// yet.
+public class MessagePage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> messages;
+    private final long firstSequence;
+    private final boolean hasMore;
+
+    public MessagePage(List<String> messages, long firstSequence, boolean hasMore) {
+        this.messages = messages;
+        this.firstSequence = firstSequence;
+        this.hasMore = hasMore;
+    }
+
+    public List<String> getMessages() {
+        return messages;
+    }
+
+    // Sequence number of the first message on the page
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    // Cursor to pass when asking for the next page
+    public long getNextSequence() {
+        return firstSequence + messages.size();
+    }
+
+    // Whether the mailbox held messages beyond this page when it was read
+    public boolean hasMore() {
+        return hasMore;
+    }
+}
@@ -6,9 +6,32 @@ import java.util.List;
 //interface for the simple message service methods
 public interface MessageService extends Remote {
 
+    // Largest page the service returns, whatever page size is asked for
+    int MAX_PAGE_SIZE = 1000;
+
     // Method to store a message for a given username
     void storeMessage(String username, String message) throws RemoteException;
 
+    // Method to store several messages for a given username in one call; they
+    // get consecutive sequence numbers
+    void storeMessages(String username, List<String> messages) throws RemoteException;
+
     // Method to retrieve messages for a given username
     List<String> retrieveMessages(String username) throws RemoteException;
+
+    // Method to retrieve up to pageSize messages for a given username, starting
+    // at sequence number cursor (0 for the first page, then the previous page's
+    // next sequence)
+    MessagePage retrieveMessages(String username, long cursor, int pageSize) throws RemoteException;
+
+    // Method to retrieve the messages stored since the given sequence number,
+    // at most MAX_PAGE_SIZE of them
+    MessagePage retrieveMessagesSince(String username, long sequence) throws RemoteException;
+
+    // Method to have messages stored for a given username pushed to an
+    // exported listener from now on
+    void subscribe(String username, MessageListener listener) throws RemoteException;
+
+    // Method to stop pushing a username's messages to a listener
+    void unsubscribe(String username, MessageListener listener) throws RemoteException;
 }
@@ -1,46 +1,130 @@
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-// Implementation of the RMI interface
+// Implementation of the RMI interface. The methods are not synchronized: RMI
+// calls run on their connection threads in parallel, and the MessageStore
+// keeps users' mailboxes consistent without a global lock.
 public class MessageServiceImpl extends UnicastRemoteObject implements MessageService {
 
-    // Map to store messages for each username
-    private final Map<String, List<String>> messageStore;
+    private static final Logger LOG = Logger.getLogger(MessageServiceImpl.class.getName());
+
+    // Messages for each username
+    private final MessageStore messageStore;
+
+    // Subscribers for each username
+    private final MessageDispatcher dispatcher = new MessageDispatcher();
 
     // Constructor to initialize the message store
     protected MessageServiceImpl() throws RemoteException {
+        this(new ConcurrentMessageStore());
+    }
+
+    protected MessageServiceImpl(MessageStore messageStore) throws RemoteException {
         super();
-        this.messageStore = new HashMap<>();
+        this.messageStore = messageStore;
     }
 
     // Method to store a message for a given username
     @Override
-    public synchronized void storeMessage(String username, String message) throws RemoteException {
-        // Ensure thread safety when modifying the messageStore
-        messageStore.computeIfAbsent(username, k -> new LinkedList<>()).add(message);
-        System.out.println("Message stored for " + username);
+    public void storeMessage(String username, String message) throws RemoteException {
+        long sequence = messageStore.storeMessage(username, message);
+        dispatcher.publish(username, sequence, Collections.singletonList(message));
+        // Off by default; enable FINE logging for this class to trace stores
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Message stored for " + username);
+        }
+    }
+
+    // Method to store several messages for a given username in one call
+    @Override
+    public void storeMessages(String username, List<String> messages) throws RemoteException {
+        long sequence = messageStore.storeMessages(username, messages);
+        dispatcher.publish(username, sequence, messages);
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine(messages.size() + " messages stored for " + username);
+        }
     }
 
     // Method to retrieve messages for a given username
     @Override
-    public synchronized List<String> retrieveMessages(String username) throws RemoteException {
+    public List<String> retrieveMessages(String username) throws RemoteException {
         // Return the messages for the given username, or an empty list if none exist
-        return messageStore.getOrDefault(username, new LinkedList<>());
+        return messageStore.retrieveMessages(username);
+    }
+
+    // Method to retrieve a page of messages for a given username
+    @Override
+    public MessagePage retrieveMessages(String username, long cursor, int pageSize) throws RemoteException {
+        return messageStore.retrieveMessages(username, cursor, Math.min(pageSize, MAX_PAGE_SIZE));
+    }
+
+    // Method to retrieve the messages stored since a given sequence number
+    @Override
+    public MessagePage retrieveMessagesSince(String username, long sequence) throws RemoteException {
+        return messageStore.retrieveMessages(username, sequence, MAX_PAGE_SIZE);
+    }
+
+    // Method to push a username's new messages to a listener
+    @Override
+    public void subscribe(String username, MessageListener listener) throws RemoteException {
+        dispatcher.subscribe(username, listener);
+    }
+
+    // Method to stop pushing a username's messages to a listener
+    @Override
+    public void unsubscribe(String username, MessageListener listener) throws RemoteException {
+        dispatcher.unsubscribe(username, listener);
+    }
+
+    // Choose the message store from system properties: -Dmessage.store=log
+    // keeps messages in a LogMessageStore under -Dmessage.log.dir (default
+    // "messages") with -Dmessage.log.durability (default PERIODIC);
+    // -Dmessage.store=compact keeps them in memory in a CompactMessageStore;
+    // otherwise they are kept in a ConcurrentMessageStore
+    static MessageStore createStore() throws IOException {
+        String kind = System.getProperty("message.store", "");
+        if (kind.equals("compact")) {
+            return new CompactMessageStore();
+        }
+        if (!kind.equals("log")) {
+            return new ConcurrentMessageStore();
+        }
+        LogMessageStore store = new LogMessageStore(Paths.get(System.getProperty("message.log.dir", "messages")),
+                LogMessageStore.Durability.valueOf(System.getProperty("message.log.durability", "PERIODIC")),
+                LogMessageStore.DEFAULT_SEGMENT_SIZE, LogMessageStore.DEFAULT_FLUSH_INTERVAL);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                store.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Closing the message log failed", e);
+            }
+        }));
+        return store;
     }
 
     // Main method to start the RMI server
     public static void main(String[] args) {
         try {
             // Create an instance of the message service
-            MessageService messageService = new MessageServiceImpl();
+            MessageStore store = createStore();
+            MessageService messageService = new MessageServiceImpl(store);
             
             // Create RMI registry and bind the service to a name
             java.rmi.registry.LocateRegistry.createRegistry(1099);
             java.rmi.Naming.rebind("MessageService", messageService);
+
+            // Serve the same service over the binary protocol as well. Stores
+            // that wait for the disk need the wire server's worker pool.
+            boolean blocking = store instanceof LogMessageStore
+                    && ((LogMessageStore) store).getDurability() == LogMessageStore.Durability.SYNC;
+            new MessageWireServer(messageService, Integer.getInteger("message.wire.port", MessageWireServer.DEFAULT_PORT),
+                    blocking);
             
             System.out.println("MessageService is ready.");
         } catch (Exception e) {
@@ -0,0 +1,21 @@
+import java.util.List;
+
+// Storage behind the message service. Implementations must be safe to call
+// from many RMI connection threads at once.
+public interface MessageStore {
+
+    // Append a message to the user's mailbox and return its sequence number
+    long storeMessage(String username, String message);
+
+    // Append several messages to the user's mailbox with consecutive sequence
+    // numbers, no other message coming between them, and return the first
+    long storeMessages(String username, List<String> messages);
+
+    // Return a snapshot of the user's messages in the order they were stored,
+    // or an empty list if there are none
+    List<String> retrieveMessages(String username);
+
+    // Return up to pageSize of the user's messages starting at sequence number
+    // cursor; a cursor past the end gives an empty page
+    MessagePage retrieveMessages(String username, long cursor, int pageSize);
+}
@@ -0,0 +1,294 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// MessageService over one MessageWireProtocol connection to a
+// MessageWireServer, usable wherever the RMI stub is. Calls from several
+// threads share the connection: each sends its request and waits only for its
+// own response, so their requests are pipelined. storeMessageAsync does not
+// wait at all, letting a single thread keep many stores in flight.
+//
+// Listeners are called on a single push thread, in the order the pushes
+// arrive, so they may call back into this client.
+public class MessageWireClient implements MessageService, Closeable {
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final ConcurrentHashMap<Integer, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<MessageListener>> listeners = new ConcurrentHashMap<>();
+    private final ExecutorService pushes = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MessageWireClient push");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Thread reader;
+    private volatile IOException failure;
+
+    public MessageWireClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        reader = new Thread(this::readLoop, "MessageWireClient reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public void storeMessage(String username, String message) throws RemoteException {
+        call(request(MessageWireProtocol.STORE, username).putString(message));
+    }
+
+    // Store a message without waiting for the server; the future completes
+    // when the server has stored it
+    public CompletableFuture<Void> storeMessageAsync(String username, String message) {
+        return send(request(MessageWireProtocol.STORE, username).putString(message)).thenApply(response -> null);
+    }
+
+    @Override
+    public void storeMessages(String username, List<String> messages) throws RemoteException {
+        call(request(MessageWireProtocol.STORE_BATCH, username).putStrings(messages));
+    }
+
+    @Override
+    public List<String> retrieveMessages(String username) throws RemoteException {
+        return MessageWireProtocol.getStrings(call(request(MessageWireProtocol.RETRIEVE_ALL, username)));
+    }
+
+    @Override
+    public MessagePage retrieveMessages(String username, long cursor, int pageSize) throws RemoteException {
+        return MessageWireProtocol.getPage(call(request(MessageWireProtocol.RETRIEVE_PAGE, username)
+                .putLong(cursor).putInt(pageSize)));
+    }
+
+    @Override
+    public MessagePage retrieveMessagesSince(String username, long sequence) throws RemoteException {
+        return MessageWireProtocol.getPage(call(request(MessageWireProtocol.RETRIEVE_SINCE, username).putLong(sequence)));
+    }
+
+    // The connection subscribes to a username once, whatever the number of
+    // local listeners for it. Each username's listener list is also the lock
+    // for its subscription, held while the SUBSCRIBE or UNSUBSCRIBE frame is
+    // sent, so those frames go out in the order the lists change. A list is
+    // unmapped once empty; a subscriber that finds it gone starts over.
+    @Override
+    public void subscribe(String username, MessageListener listener) throws RemoteException {
+        while (true) {
+            CopyOnWriteArrayList<MessageListener> forUser = listeners.computeIfAbsent(username, k -> new CopyOnWriteArrayList<>());
+            synchronized (forUser) {
+                if (listeners.get(username) != forUser) {
+                    continue;
+                }
+                if (!forUser.addIfAbsent(listener) || forUser.size() > 1) {
+                    return;
+                }
+                try {
+                    call(request(MessageWireProtocol.SUBSCRIBE, username));
+                } catch (RemoteException | RuntimeException e) {
+                    forUser.remove(listener);
+                    listeners.remove(username, forUser);
+                    throw e;
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void unsubscribe(String username, MessageListener listener) throws RemoteException {
+        CopyOnWriteArrayList<MessageListener> forUser = listeners.get(username);
+        if (forUser == null) {
+            return;
+        }
+        synchronized (forUser) {
+            if (!forUser.remove(listener) || !forUser.isEmpty()) {
+                return;
+            }
+            try {
+                call(request(MessageWireProtocol.UNSUBSCRIBE, username));
+            } finally {
+                listeners.remove(username, forUser);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        pushes.shutdown();
+    }
+
+    private MessageWireProtocol.FrameBuilder request(byte code, String username) {
+        return new MessageWireProtocol.FrameBuilder(nextId.getAndIncrement(), code).putString(username);
+    }
+
+    // Send a request and wait for its response payload
+    private ByteBuffer call(MessageWireProtocol.FrameBuilder request) throws RemoteException {
+        try {
+            return send(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted waiting for a response");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw new RemoteException("Request failed", e.getCause());
+        }
+    }
+
+    private CompletableFuture<ByteBuffer> send(MessageWireProtocol.FrameBuilder request) {
+        ByteBuffer frame = request.finish();
+        int id = frame.getInt(Integer.BYTES);
+        CompletableFuture<ByteBuffer> response = new CompletableFuture<>();
+        pending.put(id, response);
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            synchronized (out) {
+                out.write(frame.array(), 0, frame.limit());
+                out.flush();
+            }
+        } catch (IOException e) {
+            pending.remove(id);
+            response.completeExceptionally(new RemoteException("Connection failed", e));
+        }
+        return response;
+    }
+
+    // Complete each response's future, and hand pushes to the push thread
+    private void readLoop() {
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length < MessageWireProtocol.FRAME_HEADER - Integer.BYTES || length > MessageWireProtocol.MAX_FRAME) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                ByteBuffer frame = ByteBuffer.wrap(bytes);
+                int id = frame.getInt();
+                byte code = frame.get();
+                if (code == MessageWireProtocol.PUSH) {
+                    push(MessageWireProtocol.getString(frame), MessageWireProtocol.getPage(frame));
+                    continue;
+                }
+                CompletableFuture<ByteBuffer> response = pending.remove(id);
+                if (response == null) {
+                    continue;
+                }
+                if (code == MessageWireProtocol.OK) {
+                    response.complete(frame);
+                } else {
+                    response.completeExceptionally(new RemoteException("Server error: " + MessageWireProtocol.getString(frame)));
+                }
+            }
+        } catch (IOException e) {
+            failure = e instanceof EOFException ? new EOFException("Connection closed by server") : e;
+        } catch (RuntimeException e) {
+            failure = new IOException("Malformed frame from server", e);
+        }
+        for (Integer id : pending.keySet()) {
+            CompletableFuture<ByteBuffer> response = pending.remove(id);
+            if (response != null) {
+                response.completeExceptionally(new RemoteException("Connection failed", failure));
+            }
+        }
+    }
+
+    private void push(String username, MessagePage page) {
+        List<MessageListener> forUser = listeners.get(username);
+        if (forUser == null) {
+            return;
+        }
+        for (MessageListener listener : forUser) {
+            pushes.execute(() -> {
+                try {
+                    listener.messagesStored(username, page);
+                } catch (RemoteException | RuntimeException e) {
+                    unsubscribeQuietly(username, listener);
+                }
+            });
+        }
+    }
+
+    private void unsubscribeQuietly(String username, MessageListener listener) {
+        try {
+            unsubscribe(username, listener);
+        } catch (RemoteException e) {
+            // The connection is gone; there is nothing left to unsubscribe from
+        }
+    }
+
+    // Testing and Benchmarking Functions
+
+    // Compare RMI and the wire protocol for tiny stores against an in-process
+    // MessageServiceImpl: latency of one call at a time, then throughput with
+    // many stores in flight:
+    // java MessageWireClient [calls]
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        MessageServiceImpl service = new MessageServiceImpl();
+        MessageService rmi = (MessageService) RemoteObject.toStub(service);
+        try (MessageWireServer server = new MessageWireServer(service, 0);
+             MessageWireClient wire = new MessageWireClient("localhost", server.getPort())) {
+            for (int round = 0; round < 2; round++) {
+                boolean report = round == 1; // The first round warms up
+                latency("RMI", rmi, calls, report);
+                latency("Wire", wire, calls, report);
+            }
+
+            Semaphore window = new Semaphore(1000);
+            long startTime = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                window.acquire();
+                wire.storeMessageAsync("pipelined", "message " + i).whenComplete((v, e) -> window.release());
+            }
+            window.acquire(1000);
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            System.out.printf("Wire, 1000 in flight: %,.0f ops/s%n", calls / seconds);
+            if (wire.retrieveMessages("pipelined").size() != calls) {
+                throw new AssertionError("Pipelined stores went missing");
+            }
+        } finally {
+            java.rmi.server.UnicastRemoteObject.unexportObject(service, true);
+        }
+    }
+
+    private static void latency(String name, MessageService service, int calls, boolean report) throws RemoteException {
+        long[] times = new long[calls];
+        long startTime = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            long callStart = System.nanoTime();
+            service.storeMessage(name, "message " + i);
+            times[i] = System.nanoTime() - callStart;
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        Arrays.sort(times);
+        if (report) {
+            System.out.printf("%s, one call at a time: %,.0f ops/s, p50 %.1f us, p99 %.1f us%n", name, calls / seconds,
+                    times[calls / 2] / 1e3, times[(int) (calls * 0.99)] / 1e3);
+        }
+    }
+}
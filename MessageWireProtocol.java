@@ -0,0 +1,121 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Binary protocol spoken by MessageWireServer and MessageWireClient. Every
+// frame is an int length (of the rest of the frame), an int request id and a
+// one-byte code, then the payload; numbers are big-endian and strings are an
+// int byte count followed by UTF-8. A request's code says which operation it
+// is. A response carries its request's id and a status code, so a client may
+// send many requests before reading any response; responses on a connection
+// come back in request order. Messages pushed to a subscribed connection come
+// as PUSH frames with request id 0.
+public final class MessageWireProtocol {
+
+    static final int MAX_FRAME = 16 << 20;
+    static final int FRAME_HEADER = 9; // Length, request id and code
+
+    // Requests
+    static final byte STORE = 1;          // username, message
+    static final byte STORE_BATCH = 2;    // username, count, messages
+    static final byte RETRIEVE_ALL = 3;   // username
+    static final byte RETRIEVE_PAGE = 4;  // username, long cursor, int pageSize
+    static final byte RETRIEVE_SINCE = 5; // username, long sequence
+    static final byte SUBSCRIBE = 6;      // username
+    static final byte UNSUBSCRIBE = 7;    // username
+
+    // Responses
+    static final byte OK = 0;    // Payload: nothing, a message list or a page
+    static final byte ERROR = 1; // Payload: description of the failure
+    static final byte PUSH = 2;  // Payload: username, page
+
+    private MessageWireProtocol() {
+    }
+
+    // Builds one frame in a growable buffer
+    static final class FrameBuilder {
+        private ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        FrameBuilder(int requestId, byte code) {
+            buffer.putInt(0).putInt(requestId).put(code);
+        }
+
+        FrameBuilder putInt(int value) {
+            ensure(Integer.BYTES).putInt(value);
+            return this;
+        }
+
+        FrameBuilder putLong(long value) {
+            ensure(Long.BYTES).putLong(value);
+            return this;
+        }
+
+        FrameBuilder putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes);
+            return this;
+        }
+
+        FrameBuilder putStrings(List<String> values) {
+            putInt(values.size());
+            for (String value : values) {
+                putString(value);
+            }
+            return this;
+        }
+
+        FrameBuilder putPage(MessagePage page) {
+            putLong(page.getFirstSequence());
+            ensure(1).put((byte) (page.hasMore() ? 1 : 0));
+            return putStrings(page.getMessages());
+        }
+
+        // The finished frame, ready to write
+        ByteBuffer finish() {
+            if (buffer.position() > MAX_FRAME) {
+                throw new IllegalArgumentException("Frame too large: " + buffer.position() + " bytes");
+            }
+            buffer.putInt(0, buffer.position() - Integer.BYTES);
+            buffer.flip();
+            return buffer;
+        }
+
+        private ByteBuffer ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                buffer = larger.put(buffer);
+            }
+            return buffer;
+        }
+    }
+
+    static String getString(ByteBuffer frame) {
+        int length = frame.getInt();
+        if (length < 0 || length > frame.remaining()) {
+            throw new IllegalArgumentException("Malformed frame");
+        }
+        String value = new String(frame.array(), frame.arrayOffset() + frame.position(), length, StandardCharsets.UTF_8);
+        frame.position(frame.position() + length);
+        return value;
+    }
+
+    static List<String> getStrings(ByteBuffer frame) {
+        int count = frame.getInt();
+        if (count < 0 || count > frame.remaining() / Integer.BYTES) {
+            throw new IllegalArgumentException("Malformed frame");
+        }
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(getString(frame));
+        }
+        return values;
+    }
+
+    static MessagePage getPage(ByteBuffer frame) {
+        long firstSequence = frame.getLong();
+        boolean hasMore = frame.get() != 0;
+        return new MessagePage(getStrings(frame), firstSequence, hasMore);
+    }
+}
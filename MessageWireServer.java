@@ -0,0 +1,377 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Serves a MessageService over MessageWireProtocol, as a lighter alternative
+// to RMI for the same operations: no serialization and no per-call
+// connection handshake, just a small frame each way.
+//
+// One selector thread accepts connections and reads their requests. Each
+// read handles every request that has arrived, so a client that pipelines
+// many requests gets its responses written back together. Responses are
+// written at once when the socket will take them, and the rest is left to the
+// selector thread. Running requests on the selector thread saves a thread
+// handoff per call, which is most of the cost for tiny messages; but if the
+// service can block (a LogMessageStore waiting for the disk), that would hold
+// up every connection, so such a service is given a worker pool instead. A
+// connection's requests then run in order on the pool, one run at a time per
+// connection. A connection stops being read while too many of its requests or
+// responses are waiting, so a client that sends faster than it reads only
+// slows itself down.
+public class MessageWireServer implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(MessageWireServer.class.getName());
+
+    public static final int DEFAULT_PORT = 1100;
+    static final int MAX_QUEUED_REQUESTS = 4096;    // Per connection, before reading stops
+    static final int MAX_PENDING_OUTPUT = 1 << 20;  // Bytes per connection, before reading stops
+    private static final int FRAME_BODY_MINIMUM = MessageWireProtocol.FRAME_HEADER - Integer.BYTES;
+
+    private final MessageService service;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers; // Null to run requests on the selector thread
+    private final Thread selectorThread;
+    private volatile boolean closed;
+
+    public MessageWireServer(MessageService service, int port) throws IOException {
+        this(service, port, false);
+    }
+
+    public MessageWireServer(MessageService service, int port, boolean blockingService) throws IOException {
+        this.service = service;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        workers = !blockingService ? null : Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "MessageWireServer worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        selectorThread = new Thread(this::selectLoop, "MessageWireServer selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    // The port the server listens on, useful when it was started on port 0
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+        serverChannel.close();
+        selector.close();
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    private void selectLoop() {
+        while (!closed) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "Selector failed", e);
+                return;
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (key.isValid() && key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (LOG.isLoggable(Level.FINE)) {
+                        LOG.log(Level.FINE, "Closing connection", e);
+                    }
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Accepting a connection failed", e);
+        }
+    }
+
+    // Inner classes
+
+    // One client connection. It is also the MessageListener for the usernames
+    // the client subscribes to, turning pushed pages into PUSH frames.
+    private final class Connection implements Runnable, MessageListener {
+        final SocketChannel channel;
+        SelectionKey key;
+        private ByteBuffer input = ByteBuffer.allocate(8192); // Read by the selector thread only
+
+        final ConcurrentLinkedQueue<ByteBuffer> requests = new ConcurrentLinkedQueue<>();
+        final AtomicInteger queuedRequests = new AtomicInteger();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final Set<String> subscriptions = ConcurrentHashMap.newKeySet();
+
+        // Guarded by this
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+        private int pendingOutput;
+        private int interestOps = SelectionKey.OP_READ;
+        private boolean open = true;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // Read what has arrived and queue each complete frame
+        void read() throws IOException {
+            if (channel.read(input) < 0) {
+                close();
+                return;
+            }
+            input.flip();
+            int frames = 0;
+            while (input.remaining() >= Integer.BYTES) {
+                int length = input.getInt(input.position());
+                if (length < FRAME_BODY_MINIMUM || length > MessageWireProtocol.MAX_FRAME) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                if (input.remaining() < Integer.BYTES + length) {
+                    break;
+                }
+                ByteBuffer frame = ByteBuffer.allocate(length);
+                frame.put(input.slice(input.position() + Integer.BYTES, length)).flip();
+                input.position(input.position() + Integer.BYTES + length);
+                requests.add(frame);
+                frames++;
+            }
+            input.compact();
+            if (input.position() >= Integer.BYTES) {
+                int needed = Integer.BYTES + input.getInt(0);
+                if (needed > input.capacity()) {
+                    ByteBuffer larger = ByteBuffer.allocate(needed);
+                    input.flip();
+                    input = larger.put(input);
+                }
+            }
+            if (frames > 0) {
+                queuedRequests.addAndGet(frames);
+                updateInterest();
+                if (scheduled.compareAndSet(false, true)) {
+                    if (workers == null) {
+                        run();
+                    } else {
+                        workers.execute(this);
+                    }
+                }
+            }
+        }
+
+        // Handle the queued requests, then send their responses together.
+        // After clearing scheduled, check again, since read may have seen the
+        // flag still set and left its frames to this run.
+        @Override
+        public void run() {
+            while (true) {
+                List<ByteBuffer> responses = new ArrayList<>();
+                ByteBuffer frame;
+                while ((frame = requests.poll()) != null) {
+                    responses.add(handle(frame));
+                }
+                if (responses.isEmpty()) {
+                    scheduled.set(false);
+                    if (requests.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                queuedRequests.addAndGet(-responses.size());
+                try {
+                    send(responses);
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+            }
+        }
+
+        private ByteBuffer handle(ByteBuffer frame) {
+            int id = frame.getInt();
+            byte code = frame.get();
+            try {
+                MessageWireProtocol.FrameBuilder response = new MessageWireProtocol.FrameBuilder(id, MessageWireProtocol.OK);
+                String username = MessageWireProtocol.getString(frame);
+                switch (code) {
+                    case MessageWireProtocol.STORE:
+                        service.storeMessage(username, MessageWireProtocol.getString(frame));
+                        break;
+                    case MessageWireProtocol.STORE_BATCH:
+                        service.storeMessages(username, MessageWireProtocol.getStrings(frame));
+                        break;
+                    case MessageWireProtocol.RETRIEVE_ALL:
+                        response.putStrings(service.retrieveMessages(username));
+                        break;
+                    case MessageWireProtocol.RETRIEVE_PAGE:
+                        response.putPage(service.retrieveMessages(username, frame.getLong(), frame.getInt()));
+                        break;
+                    case MessageWireProtocol.RETRIEVE_SINCE:
+                        response.putPage(service.retrieveMessagesSince(username, frame.getLong()));
+                        break;
+                    case MessageWireProtocol.SUBSCRIBE:
+                        subscriptions.add(username);
+                        service.subscribe(username, this);
+                        break;
+                    case MessageWireProtocol.UNSUBSCRIBE:
+                        subscriptions.remove(username);
+                        service.unsubscribe(username, this);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown request code " + code);
+                }
+                return response.finish();
+            } catch (Exception e) {
+                return new MessageWireProtocol.FrameBuilder(id, MessageWireProtocol.ERROR).putString(e.toString()).finish();
+            }
+        }
+
+        // Push a page to the client, waiting while its output is backed up;
+        // the dispatcher's bounded queue then absorbs the delay
+        @Override
+        public void messagesStored(String username, MessagePage page) throws RemoteException {
+            ByteBuffer frame = new MessageWireProtocol.FrameBuilder(0, MessageWireProtocol.PUSH)
+                    .putString(username).putPage(page).finish();
+            synchronized (this) {
+                while (open && pendingOutput > MAX_PENDING_OUTPUT) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RemoteException("Interrupted pushing messages");
+                    }
+                }
+            }
+            try {
+                send(List.of(frame));
+            } catch (IOException e) {
+                close();
+                throw new RemoteException("Connection closed", e);
+            }
+        }
+
+        // Queue frames and write as much as the socket takes now; the selector
+        // thread writes the rest when the socket is writable again
+        synchronized void send(List<ByteBuffer> frames) throws IOException {
+            if (!open) {
+                throw new IOException("Connection closed");
+            }
+            for (ByteBuffer frame : frames) {
+                output.add(frame);
+                pendingOutput += frame.remaining();
+            }
+            flush();
+        }
+
+        synchronized void flush() throws IOException {
+            while (!output.isEmpty()) {
+                ByteBuffer[] buffers = output.toArray(new ByteBuffer[0]);
+                long written = channel.write(buffers);
+                pendingOutput -= (int) written;
+                while (!output.isEmpty() && !output.peek().hasRemaining()) {
+                    output.poll();
+                }
+                if (written == 0) {
+                    break;
+                }
+            }
+            notifyAll();
+            updateInterest();
+        }
+
+        // Want OP_WRITE while output is waiting, and OP_READ unless the
+        // connection is backed up
+        synchronized void updateInterest() {
+            boolean backedUp = pendingOutput > MAX_PENDING_OUTPUT || queuedRequests.get() > MAX_QUEUED_REQUESTS;
+            int ops = (backedUp ? 0 : SelectionKey.OP_READ) | (output.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+            if (open && ops != interestOps && key.isValid()) {
+                interestOps = ops;
+                key.interestOps(ops);
+                if (Thread.currentThread() != selectorThread) {
+                    selector.wakeup();
+                }
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                if (!open) {
+                    return;
+                }
+                open = false;
+                notifyAll();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Closing a connection failed", e);
+            }
+            for (String username : subscriptions) {
+                try {
+                    service.unsubscribe(username, this);
+                } catch (RemoteException e) {
+                    LOG.log(Level.FINE, "Unsubscribing failed", e);
+                }
+            }
+        }
+    }
+}
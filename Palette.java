@@ -0,0 +1,68 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Colour lookup table mapping an escape-time iteration count to a packed ARGB
+// value. A table is built once per iteration limit and then shared, so
+// rendering a pixel is a single array load instead of a new Color object.
+public final class Palette {
+  private static final Map<Integer, Palette> palettes = new ConcurrentHashMap<>();
+
+  private final int maxIterations;
+  private final int[] colours;
+
+  private Palette(int maxIterations) {
+    this.maxIterations = maxIterations;
+    colours = new int[maxIterations + 1];
+    for (int n = 0; n <= maxIterations; n++) {
+      colours[n] = colour(n, maxIterations);
+    }
+  } // constructor
+
+  // Shared palette for the given iteration limit
+  public static Palette forLimit(int maxIterations) {
+    if (maxIterations <= 0) {
+      throw new IllegalArgumentException("Iteration limit must be positive: " + maxIterations);
+    }
+    return palettes.computeIfAbsent(maxIterations, Palette::new);
+  } // forLimit
+
+  public int getMaxIterations() {
+    return maxIterations;
+  }
+
+  // ARGB colour for an iteration count between 0 and the limit
+  public int argb(int n) {
+    return colours[n];
+  }
+
+  // The original applet colour scheme, stretched so that the limit maps to 100
+  private static int colour(int n, int maxIterations) {
+    int val = (int) ((long) n * 100 / maxIterations);
+    int r, g = 0, b;
+
+    if (val == 100) {
+      r = 0;
+      b = 0;
+    } else if (val > 90) {
+      r = val * 2;
+      b = (val - 90) * 25;
+    } else if (val > 80) {
+      r = val * 2;
+      b = 0;
+    } else if (val > 60) {
+      r = val * 3;
+      b = val;
+    } else if (val > 20) {
+      r = val * 4;
+      b = val * 2;
+    } else if (val > 10) {
+      r = val * 5;
+      b = val * 10;
+    } else {
+      r = 0;
+      b = val * 20;
+    }
+    return 0xFF000000 | (r << 16) | (g << 8) | b;
+  } // colour
+}
+// class Palette
@@ -0,0 +1,356 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Parallel quick sorts for arrays of primitives. They work like
+// ParallelQuickSort but compare values directly instead of boxing them and
+// calling compareTo, so a million ints take 4 MB instead of some 20 MB of
+// Integer objects scattered over the heap.
+//
+// Each range is partitioned around the median of its first, middle and last
+// elements and the two halves are sorted as separate fork/join tasks; ranges
+// below the sequential threshold (see ParallelQuickSort.sequentialThreshold)
+// are finished with Arrays.sort. As in Sort's introsort, partitioning stops
+// after Sort.depthLimit levels, so that inputs which defeat the median of
+// three cannot make it quadratic; deeper ranges also go to Arrays.sort.
+//
+// parallelSort chooses between this and ParallelRadixSort for int and long
+// arrays. The radix sort makes a fixed number of linear passes whatever the
+// input order, which suits keys such as IDs and timestamps.
+//
+// The double sort orders values like Arrays.sort(double[]): -0.0 before 0.0
+// and NaNs last.
+public class ParallelPrimitiveSort {
+
+    static final int MIN_SEQUENTIAL_THRESHOLD = 8192;
+
+    // How parallelSort orders a list
+    public enum Strategy {
+        QUICK, // parallelQuickSort
+        RADIX  // ParallelRadixSort.parallelRadixSort
+    }
+
+    private ParallelPrimitiveSort() {
+    }
+
+    private static int threshold(int length) {
+        return ParallelQuickSort.sequentialThreshold(length, ForkJoinPool.getCommonPoolParallelism(),
+                MIN_SEQUENTIAL_THRESHOLD);
+    }
+
+    public static void parallelQuickSort(int[] list) {
+        ForkJoinPool.commonPool().invoke(new IntSortTask(list, 0, list.length - 1, threshold(list.length),
+                Sort.depthLimit(list.length)));
+    }
+
+    public static void parallelQuickSort(long[] list) {
+        ForkJoinPool.commonPool().invoke(new LongSortTask(list, 0, list.length - 1, threshold(list.length),
+                Sort.depthLimit(list.length)));
+    }
+
+    public static void parallelSort(int[] list, Strategy strategy) {
+        switch (strategy) {
+            case QUICK:
+                parallelQuickSort(list);
+                break;
+            case RADIX:
+                ParallelRadixSort.parallelRadixSort(list);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown strategy: " + strategy);
+        }
+    }
+
+    public static void parallelSort(long[] list, Strategy strategy) {
+        switch (strategy) {
+            case QUICK:
+                parallelQuickSort(list);
+                break;
+            case RADIX:
+                ParallelRadixSort.parallelRadixSort(list);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown strategy: " + strategy);
+        }
+    }
+
+    public static void parallelQuickSort(double[] list) {
+        // Move NaNs to the end and turn -0.0 into 0.0, so that the rest can be
+        // partitioned with plain < comparisons
+        int end = list.length;
+        int negativeZeros = 0;
+        for (int i = end - 1; i >= 0; i--) {
+            double value = list[i];
+            if (value != value) {
+                list[i] = list[--end];
+                list[end] = value;
+            } else if (Double.doubleToRawLongBits(value) == Long.MIN_VALUE) {
+                list[i] = 0.0;
+                negativeZeros++;
+            }
+        }
+
+        ForkJoinPool.commonPool().invoke(new DoubleSortTask(list, 0, end - 1, threshold(end), Sort.depthLimit(end)));
+
+        // Put the -0.0s back at the start of the run of zeros
+        if (negativeZeros > 0) {
+            int low = 0, high = end;
+            while (low < high) { // find the first element >= 0.0
+                int mid = (low + high) >>> 1;
+                if (list[mid] < 0.0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            Arrays.fill(list, low, low + negativeZeros, -0.0);
+        }
+    }
+
+    // Order list[a] <= list[b] <= list[c], leaving the median in list[b]
+    private static void sort3(int[] list, int a, int b, int c) {
+        if (list[b] < list[a]) { int t = list[a]; list[a] = list[b]; list[b] = t; }
+        if (list[c] < list[b]) { int t = list[b]; list[b] = list[c]; list[c] = t; }
+        if (list[b] < list[a]) { int t = list[a]; list[a] = list[b]; list[b] = t; }
+    }
+
+    private static void sort3(long[] list, int a, int b, int c) {
+        if (list[b] < list[a]) { long t = list[a]; list[a] = list[b]; list[b] = t; }
+        if (list[c] < list[b]) { long t = list[b]; list[b] = list[c]; list[c] = t; }
+        if (list[b] < list[a]) { long t = list[a]; list[a] = list[b]; list[b] = t; }
+    }
+
+    private static void sort3(double[] list, int a, int b, int c) {
+        if (list[b] < list[a]) { double t = list[a]; list[a] = list[b]; list[b] = t; }
+        if (list[c] < list[b]) { double t = list[b]; list[b] = list[c]; list[c] = t; }
+        if (list[b] < list[a]) { double t = list[a]; list[a] = list[b]; list[b] = t; }
+    }
+
+    // Hoare partition around the median of three. Returns p such that
+    // list[low..p] <= pivot <= list[p+1..high], with both parts non-empty.
+    // Equal keys are spread over both parts, so duplicates do not unbalance it.
+    static int partition(int[] list, int low, int high) {
+        int mid = (low + high) >>> 1;
+        sort3(list, low, mid, high);
+        int pivot = list[mid];
+        int i = low - 1, j = high + 1;
+        while (true) {
+            do {
+                i++;
+            } while (list[i] < pivot);
+            do {
+                j--;
+            } while (list[j] > pivot);
+            if (i >= j) {
+                return j;
+            }
+            int temp = list[i];
+            list[i] = list[j];
+            list[j] = temp;
+        }
+    }
+
+    static int partition(long[] list, int low, int high) {
+        int mid = (low + high) >>> 1;
+        sort3(list, low, mid, high);
+        long pivot = list[mid];
+        int i = low - 1, j = high + 1;
+        while (true) {
+            do {
+                i++;
+            } while (list[i] < pivot);
+            do {
+                j--;
+            } while (list[j] > pivot);
+            if (i >= j) {
+                return j;
+            }
+            long temp = list[i];
+            list[i] = list[j];
+            list[j] = temp;
+        }
+    }
+
+    // The range must hold no NaNs
+    static int partition(double[] list, int low, int high) {
+        int mid = (low + high) >>> 1;
+        sort3(list, low, mid, high);
+        double pivot = list[mid];
+        int i = low - 1, j = high + 1;
+        while (true) {
+            do {
+                i++;
+            } while (list[i] < pivot);
+            do {
+                j--;
+            } while (list[j] > pivot);
+            if (i >= j) {
+                return j;
+            }
+            double temp = list[i];
+            list[i] = list[j];
+            list[j] = temp;
+        }
+    }
+
+    // Sorting tasks, one per element type
+
+    static class IntSortTask extends RecursiveAction {
+        private final int[] list;
+        private final int low;
+        private final int high;
+        private final int threshold;
+        private final int depth; // Levels of partitioning left before Arrays.sort takes over
+
+        IntSortTask(int[] list, int low, int high, int threshold, int depth) {
+            this.list = list;
+            this.low = low;
+            this.high = high;
+            this.threshold = threshold;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (high - low + 1 > threshold && depth > 0) {
+                int partitionPoint = partition(list, low, high);
+                invokeAll(new IntSortTask(list, low, partitionPoint, threshold, depth - 1),
+                        new IntSortTask(list, partitionPoint + 1, high, threshold, depth - 1));
+            } else if (low < high) {
+                Arrays.sort(list, low, high + 1);
+            }
+        }
+    }
+
+    static class LongSortTask extends RecursiveAction {
+        private final long[] list;
+        private final int low;
+        private final int high;
+        private final int threshold;
+        private final int depth; // Levels of partitioning left before Arrays.sort takes over
+
+        LongSortTask(long[] list, int low, int high, int threshold, int depth) {
+            this.list = list;
+            this.low = low;
+            this.high = high;
+            this.threshold = threshold;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (high - low + 1 > threshold && depth > 0) {
+                int partitionPoint = partition(list, low, high);
+                invokeAll(new LongSortTask(list, low, partitionPoint, threshold, depth - 1),
+                        new LongSortTask(list, partitionPoint + 1, high, threshold, depth - 1));
+            } else if (low < high) {
+                Arrays.sort(list, low, high + 1);
+            }
+        }
+    }
+
+    static class DoubleSortTask extends RecursiveAction {
+        private final double[] list;
+        private final int low;
+        private final int high;
+        private final int threshold;
+        private final int depth; // Levels of partitioning left before Arrays.sort takes over
+
+        DoubleSortTask(double[] list, int low, int high, int threshold, int depth) {
+            this.list = list;
+            this.low = low;
+            this.high = high;
+            this.threshold = threshold;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (high - low + 1 > threshold && depth > 0) {
+                int partitionPoint = partition(list, low, high);
+                invokeAll(new DoubleSortTask(list, low, partitionPoint, threshold, depth - 1),
+                        new DoubleSortTask(list, partitionPoint + 1, high, threshold, depth - 1));
+            } else if (low < high) {
+                Arrays.sort(list, low, high + 1);
+            }
+        }
+    }
+
+    // Testing and Benchmarking Functions
+
+    public static void testSort() {
+        java.util.Random random = new java.util.Random(42);
+        int size = 200000;
+
+        int[] ints = new int[size];
+        long[] longs = new long[size];
+        double[] doubles = new double[size];
+        double[] specials = { Double.NaN, -0.0, 0.0, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.longBitsToDouble(0x7ff8000000000123L) };
+        for (int i = 0; i < size; i++) {
+            ints[i] = random.nextInt(1000); // plenty of duplicates
+            longs[i] = random.nextLong();
+            doubles[i] = random.nextInt(10) == 0 ? specials[random.nextInt(specials.length)]
+                    : random.nextGaussian();
+        }
+
+        int[] intsCopy = ints.clone();
+        long[] longsCopy = longs.clone();
+        double[] doublesCopy = doubles.clone();
+        int[] intsRadix = ints.clone();
+        long[] longsRadix = longs.clone();
+        parallelQuickSort(ints);
+        parallelQuickSort(longs);
+        parallelQuickSort(doubles);
+        parallelSort(intsRadix, Strategy.RADIX);
+        parallelSort(longsRadix, Strategy.RADIX);
+        Arrays.sort(intsCopy);
+        Arrays.sort(longsCopy);
+        Arrays.sort(doublesCopy);
+
+        // Arrays.equals compares doubles by bits, so -0.0 and 0.0 must be in the right places
+        if (!Arrays.equals(ints, intsCopy) || !Arrays.equals(longs, longsCopy)
+                || !Arrays.equals(doubles, doublesCopy) || !Arrays.equals(intsRadix, intsCopy)
+                || !Arrays.equals(longsRadix, longsCopy)) {
+            throw new RuntimeException("Sorting failed!");
+        }
+        System.out.println("Sorting successful!");
+    }
+
+    public static void main(String[] args) {
+        testSort();
+
+        // Benchmarking with a large array (1 million elements), boxed and primitive
+        int numRuns = 10;
+        int arraySize = 1000000;
+        int[] largeArr = new int[arraySize];
+        Integer[] boxedArr = new Integer[arraySize];
+        for (int i = 0; i < arraySize; i++) {
+            largeArr[i] = (int) (Math.random() * 1000); // Random integers
+            boxedArr[i] = largeArr[i];
+        }
+
+        long boxedTime = ParallelQuickSort.benchmark(boxedArr, numRuns, true);
+        long totalTime = 0;
+        for (int i = 0; i < numRuns; i++) {
+            int[] copy = largeArr.clone();
+            long startTime = System.nanoTime();
+            parallelQuickSort(copy);
+            totalTime += System.nanoTime() - startTime;
+        }
+        long primitiveTime = totalTime / numRuns;
+        totalTime = 0;
+        for (int i = 0; i < numRuns; i++) {
+            int[] copy = largeArr.clone();
+            long startTime = System.nanoTime();
+            parallelSort(copy, Strategy.RADIX);
+            totalTime += System.nanoTime() - startTime;
+        }
+        long radixTime = totalTime / numRuns;
+
+        System.out.println("Parallel Integer[] Time: " + boxedTime + " ns");
+        System.out.println("Parallel int[] Time: " + primitiveTime + " ns");
+        System.out.println("Parallel int[] Radix Time: " + radixTime + " ns");
+        System.out.println("Speedup: " + (double) boxedTime / primitiveTime);
+    }
+}
@@ -1,53 +1,196 @@
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
 
+// Parallel Quick Sort on the fork/join framework.
+//
+// Below the top few levels the two halves of each partition are simply sorted
+// as separate tasks. At the top, though, a single partition pass over a large
+// range would leave every other thread idle, so ranges bigger than one thread's
+// share of the list are partitioned in parallel: blocks are classified against
+// the pivot concurrently, prefix sums over the per-block counts give every
+// block its place in the result, and the elements are scattered into a scratch
+// array and copied back, again in parallel. That costs one extra reference
+// and one byte per element while sorting.
 public class ParallelQuickSort<T extends Comparable<? super T>> extends RecursiveAction {
 
     private final T[] list;
     private final int low;
     private final int high;
-    private static final int SEQUENTIAL_THRESHOLD = 100; // Threshold for switching to sequential sort
+    private final int threshold; // Ranges up to this size are sorted sequentially
+    private final int depth; // Levels of partitioning left before Sort falls back to heap sort
+    private final Sort.Partitioning partitioning;
+    private final int parallelThreshold; // Ranges bigger than this are partitioned in parallel
+    private final int parallelism;
+    private final Object[] scratch; // Scatter target for parallel partitioning, or null
+    private final byte[] classes; // Class of each element during parallel partitioning
+
+    static final int MIN_SEQUENTIAL_THRESHOLD = 2048;
+    static final int TASKS_PER_THREAD = 8;
+    static final int MIN_PARALLEL_PARTITION = 1 << 16;
+    static final int MIN_BLOCK_SIZE = 4096;
+
+    // Element classes for parallel partitioning; with two-way partitioning
+    // LESS also holds the keys equal to the pivot
+    private static final byte LESS = 0, EQUAL = 1, GREATER = 2;
 
     public ParallelQuickSort(T[] list, int low, int high) {
+        this(list, low, high, Sort.Partitioning.TWO_WAY);
+    }
+
+    public ParallelQuickSort(T[] list, int low, int high, Sort.Partitioning partitioning) {
+        this(list, low, high, partitioning, ForkJoinPool.getCommonPoolParallelism(), 0);
+    }
+
+    // Task for a pool of the given parallelism; a threshold of 0 chooses one
+    // with sequentialThreshold
+    public ParallelQuickSort(T[] list, int low, int high, Sort.Partitioning partitioning, int parallelism,
+            int threshold) {
+        int size = high - low + 1;
         this.list = list;
         this.low = low;
         this.high = high;
+        this.partitioning = partitioning;
+        this.parallelism = Math.max(parallelism, 1);
+        this.threshold = threshold > 0 ? threshold
+                : sequentialThreshold(size, this.parallelism, MIN_SEQUENTIAL_THRESHOLD);
+        depth = Sort.depthLimit(size);
+        parallelThreshold = Math.max(MIN_PARALLEL_PARTITION, size / this.parallelism);
+        if (this.parallelism > 1 && size > parallelThreshold) {
+            scratch = new Object[list.length];
+            classes = new byte[list.length];
+        } else {
+            scratch = null;
+            classes = null;
+        }
+    }
+
+    // Subtask for part of the parent's range
+    private ParallelQuickSort(ParallelQuickSort<T> parent, int low, int high) {
+        this.list = parent.list;
+        this.low = low;
+        this.high = high;
+        threshold = parent.threshold;
+        depth = parent.depth - 1;
+        partitioning = parent.partitioning;
+        parallelThreshold = parent.parallelThreshold;
+        parallelism = parent.parallelism;
+        scratch = parent.scratch;
+        classes = parent.classes;
+    }
+
+    // Size below which a range is not split any further: about TASKS_PER_THREAD
+    // leaf tasks per thread, so that work stealing can even out unequal
+    // partitions, but never so small that task overhead dominates
+    static int sequentialThreshold(int length, int parallelism, int minimum) {
+        return Math.max(minimum, length / (Math.max(parallelism, 1) * TASKS_PER_THREAD));
     }
 
     @Override
     protected void compute() {
-        if (low < high && (high - low) > SEQUENTIAL_THRESHOLD) {
-            int partitionPoint = partition(list, low, high);
-            // Create subtasks recursively for the left and right halves
-            ParallelQuickSort<T> leftTask = new ParallelQuickSort<>(list, low, partitionPoint - 1);
-            ParallelQuickSort<T> rightTask = new ParallelQuickSort<>(list, partitionPoint + 1, high);
+        if (high - low + 1 > threshold && depth > 0) {
+            int[] equal = partition(list, low, high, partitioning,
+                    high - low + 1 > parallelThreshold ? scratch : null, classes, parallelism);
+            // Create subtasks recursively for the parts either side of the pivot
+            ParallelQuickSort<T> leftTask = new ParallelQuickSort<>(this, low, equal[0] - 1);
+            ParallelQuickSort<T> rightTask = new ParallelQuickSort<>(this, equal[1] + 1, high);
             // Invoke subtasks in ForkJoinPool
             invokeAll(leftTask, rightTask);
+        } else if (low < high) {
+            // If sub-array size is small, sort just this range sequentially
+            Sort.recursiveQS(list, low, high, depth, partitioning);
+        }
+    }
+
+    // Choose a pivot for list[low..high] and partition the range around it,
+    // using several threads if scratch space is given. Returns the indices of
+    // the first and last items equal to the pivot (just the pivot itself for
+    // two-way partitioning); the items between them are in their final places.
+    // Must be called from within a ForkJoinPool when partitioning in parallel.
+    static <T extends Comparable<? super T>> int[] partition(T[] list, int low, int high,
+            Sort.Partitioning partitioning, Object[] scratch, byte[] classes, int parallelism) {
+        Sort.choosePivot(list, low, high);
+        if (scratch != null) {
+            return parallelPartition(list, low, high, partitioning, scratch, classes, parallelism);
+        } else if (partitioning == Sort.Partitioning.THREE_WAY) {
+            // Keys equal to the pivot are already in place and are not passed on
+            return Sort.partition3(list, low, high);
         } else {
-            // If sub-array size is small, sort sequentially
-            Sort.quickSort(list); // Call original QuickSort for small arrays
+            int partitionPoint = Sort.partition(list, low, high);
+            return new int[] { partitionPoint, partitionPoint };
         }
     }
 
-    private int partition(T[] list, int low, int high) {
-        int pivot = low;
-        T pivotValue = list[pivot];
-        while (low < high) {
-            while (low < high && list[low].compareTo(pivotValue) <= 0) {
-                low++;
+    // Partition list[low..high] around the pivot in list[low] using several
+    // threads; the result is as for partition
+    private static <T extends Comparable<? super T>> int[] parallelPartition(T[] list, int low, int high,
+            Sort.Partitioning partitioning, Object[] scratch, byte[] classes, int parallelism) {
+        T pivot = list[low];
+        boolean threeWay = partitioning == Sort.Partitioning.THREE_WAY;
+        int from = low + 1; // Elements after the pivot
+        int size = high - from + 1;
+        int blocks = Math.max(1, Math.min(parallelism * TASKS_PER_THREAD, size / MIN_BLOCK_SIZE));
+        int blockSize = (size + blocks - 1) / blocks;
+        int[][] counts = new int[blocks][3];
+
+        // Classify every element and count each block's classes
+        forEachBlock(blocks, b -> {
+            int start = from + b * blockSize, end = Math.min(start + blockSize, high + 1);
+            int[] count = counts[b];
+            for (int i = start; i < end; i++) {
+                int c = list[i].compareTo(pivot);
+                byte k = c < 0 || (c == 0 && !threeWay) ? LESS : c == 0 ? EQUAL : GREATER;
+                classes[i] = k;
+                count[k]++;
+            }
+        });
+
+        // Prefix sums: the result is less, pivot, equal, greater, and each
+        // block's elements of a class follow those of the blocks before it
+        int less = 0, equal = 0;
+        for (int[] count : counts) {
+            less += count[LESS];
+            equal += count[EQUAL];
+        }
+        int[] next = { low, low + less + 1, low + less + 1 + equal };
+        int[][] offsets = new int[blocks][];
+        for (int b = 0; b < blocks; b++) {
+            offsets[b] = next.clone();
+            for (int k = 0; k < 3; k++) {
+                next[k] += counts[b][k];
             }
-            while (low < high && list[high].compareTo(pivotValue) > 0) {
-                high--;
+        }
+        scratch[low + less] = pivot;
+
+        // Scatter into the scratch array, then copy the range back
+        forEachBlock(blocks, b -> {
+            int start = from + b * blockSize, end = Math.min(start + blockSize, high + 1);
+            int[] offset = offsets[b];
+            for (int i = start; i < end; i++) {
+                scratch[offset[classes[i]]++] = list[i];
             }
-            if (low < high) {
-                T temp = list[low];
-                list[low] = list[high];
-                list[high] = temp;
+        });
+        int copyBlocks = blocks + 1, copySize = (size + 1 + copyBlocks - 1) / copyBlocks;
+        forEachBlock(copyBlocks, b -> {
+            int start = low + b * copySize, end = Math.min(start + copySize, high + 1);
+            if (start < end) {
+                System.arraycopy(scratch, start, list, start, end - start);
             }
+        });
+        return new int[] { low + less, low + less + equal };
+    }
+
+    // Run body for blocks 0 to blocks - 1 as parallel subtasks
+    static void forEachBlock(int blocks, IntConsumer body) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(blocks);
+        for (int b = 0; b < blocks; b++) {
+            int block = b;
+            tasks.add(ForkJoinTask.adapt(() -> body.accept(block)));
         }
-        list[pivot] = list[high];
-        list[high] = pivotValue;
-        return high;
+        invokeAll(tasks);
     }
 
     public static <T extends Comparable<? super T>> void parallelQuickSort(T[] list) {
@@ -55,29 +198,75 @@ public class ParallelQuickSort<T extends Comparable<? super T>> extends Recursiv
         pool.invoke(new ParallelQuickSort<>(list, 0, list.length - 1));
     }
 
+    // Three-way partitioning suits lists with many equal keys
+    public static <T extends Comparable<? super T>> void parallelQuickSort(T[] list, Sort.Partitioning partitioning) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        pool.invoke(new ParallelQuickSort<>(list, 0, list.length - 1, partitioning));
+    }
+
+    // Sort on the given pool, splitting ranges down to threshold elements
+    // (0 for the adaptive threshold)
+    public static <T extends Comparable<? super T>> void parallelQuickSort(T[] list, Sort.Partitioning partitioning,
+            ForkJoinPool pool, int threshold) {
+        pool.invoke(new ParallelQuickSort<>(list, 0, list.length - 1, partitioning, pool.getParallelism(), threshold));
+    }
+
     // Testing and Benchmarking Functions
 
     public static void testSort(Integer[] arr) {
+        testSort(arr, Sort.Partitioning.TWO_WAY);
+        System.out.println("Sorting successful!");
+    }
+
+    // Check that both partitioning modes of the sequential and parallel sorts
+    // give the same result as Arrays.sort
+    private static void testSort(Integer[] arr, Sort.Partitioning partitioning) {
+        Integer[] expected = arr.clone();
+        java.util.Arrays.sort(expected);
         Integer[] arrCopy = arr.clone();
-        parallelQuickSort(arr);
-        Sort.quickSort(arrCopy); // Use original QuickSort for comparison
-        for (int i = 0; i < arr.length; i++) {
-            if (!arr[i].equals(arrCopy[i])) {
-                throw new RuntimeException("Sorting failed!");
+        parallelQuickSort(arr, partitioning);
+        Sort.quickSort(arrCopy, partitioning);
+        if (!java.util.Arrays.equals(arr, expected) || !java.util.Arrays.equals(arrCopy, expected)) {
+            throw new RuntimeException("Sorting failed!");
+        }
+    }
+
+    // Property-based check: random sizes of every input distribution, sorted
+    // with both partitioning modes. The seed of a failing case is reported so
+    // that it can be reproduced.
+    public static void testSort(int trials) {
+        java.util.Random random = new java.util.Random();
+        int[] sizes = { 0, 1, 2, 3, Sort.INSERTION_THRESHOLD, Sort.INSERTION_THRESHOLD + 1, 1000 };
+        for (int trial = 0; trial < trials; trial++) {
+            long seed = random.nextLong();
+            int size = trial < sizes.length ? sizes[trial] : new java.util.Random(seed).nextInt(300000);
+            for (InputDistribution distribution : InputDistribution.values()) {
+                for (Sort.Partitioning partitioning : Sort.Partitioning.values()) {
+                    try {
+                        testSort(distribution.generateBoxed(size, seed), partitioning);
+                    } catch (RuntimeException e) {
+                        throw new RuntimeException("Sorting failed for " + distribution + ", size " + size
+                                + ", seed " + seed + ", " + partitioning, e);
+                    }
+                }
             }
         }
-        System.out.println("Sorting successful!");
+        System.out.println("Sorting successful over " + trials + " trials of each distribution!");
     }
 
     public static long benchmark(Integer[] arr, int numRuns, boolean isParallel) {
+        return benchmark(arr, numRuns, isParallel, Sort.Partitioning.TWO_WAY);
+    }
+
+    public static long benchmark(Integer[] arr, int numRuns, boolean isParallel, Sort.Partitioning partitioning) {
         long startTime, endTime, totalTime = 0;
         for (int i = 0; i < numRuns; i++) {
             Integer[] copy = arr.clone();
             startTime = System.nanoTime();
             if (isParallel) {
-                parallelQuickSort(copy);
+                parallelQuickSort(copy, partitioning);
             } else {
-                Sort.quickSort(copy);
+                Sort.quickSort(copy, partitioning);
             }
             endTime = System.nanoTime();
             totalTime += (endTime - startTime);
@@ -90,6 +279,7 @@ public class ParallelQuickSort<T extends Comparable<? super T>> extends Recursiv
         Integer[] testArr = { 5, 3, 1, 8, 7, 2 };
         testSort(testArr);
         System.out.println("Sorted array: " + java.util.Arrays.toString(testArr));
+        testSort(20);
 
         // Benchmarking with a large array (1 million elements)
         int numRuns = 10;
@@ -107,5 +297,10 @@ public class ParallelQuickSort<T extends Comparable<? super T>> extends Recursiv
 
         double speedup = (double) sequentialTime / parallelTime;
         System.out.println("Speedup: " + speedup);
+
+        // Only 1000 distinct keys, so three-way partitioning skips most of the work
+        long threeWayTime = benchmark(largeArr, numRuns, true, Sort.Partitioning.THREE_WAY);
+        System.out.println("Parallel Three-Way Time: " + threeWayTime + " ns");
+        System.out.println("Three-Way Speedup: " + (double) sequentialTime / threeWayTime);
     }
 }
@@ -0,0 +1,286 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+// Parallel least-significant-digit radix sort for objects with an int or long
+// key. It is the alternative to ParallelQuickSort when records are ordered by
+// an integer key such as an ID or a timestamp: no comparisons are made, and
+// the work is a fixed number of linear passes whatever the input order.
+//
+// Keys are extracted once, with the sign bit flipped so that they order as
+// unsigned numbers, and carried beside the records. Each pass sorts on one
+// 8-bit digit: the list is cut into blocks, every block builds its own digit
+// histogram in parallel, prefix sums over (digit, block) give each block its
+// output positions, and the blocks then scatter in parallel. Elements of one
+// block keep their order and earlier blocks go first, so every pass, and the
+// sort as a whole, is stable. Passes over digits that all keys share are
+// skipped, so keys in a narrow range take only a pass or two.
+//
+// int[] and long[] lists are sorted the same way with no records beside the
+// keys; ParallelPrimitiveSort.parallelSort offers this as its RADIX strategy.
+//
+// Memory: a second array of records and two long arrays of keys.
+public class ParallelRadixSort {
+
+    static final int RADIX_BITS = 8;
+    static final int BUCKETS = 1 << RADIX_BITS;
+    static final int MIN_BLOCK_SIZE = 1 << 14;
+    static final int SMALL_SORT = 256; // Shorter lists are sorted by comparison
+
+    private ParallelRadixSort() {
+    }
+
+    // Sort the list into ascending order of an int key, keeping equal keys in order
+    public static <T> void parallelRadixSortByInt(T[] list, ToIntFunction<? super T> key) {
+        if (list.length < SMALL_SORT) {
+            Arrays.sort(list, Comparator.comparingInt(key));
+            return;
+        }
+        long[] keys = new long[list.length];
+        ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> {
+            ParallelQuickSort.forEachBlock(blocks(list.length), b -> {
+                int start = blockStart(list.length, b), end = blockStart(list.length, b + 1);
+                for (int i = start; i < end; i++) {
+                    keys[i] = (key.applyAsInt(list[i]) ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+                }
+            });
+            sort(list, keys, Integer.SIZE);
+        }));
+    }
+
+    // Sort the list into ascending order of a long key, keeping equal keys in order
+    public static <T> void parallelRadixSortByLong(T[] list, ToLongFunction<? super T> key) {
+        if (list.length < SMALL_SORT) {
+            Arrays.sort(list, Comparator.comparingLong(key));
+            return;
+        }
+        long[] keys = new long[list.length];
+        ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> {
+            ParallelQuickSort.forEachBlock(blocks(list.length), b -> {
+                int start = blockStart(list.length, b), end = blockStart(list.length, b + 1);
+                for (int i = start; i < end; i++) {
+                    keys[i] = key.applyAsLong(list[i]) ^ Long.MIN_VALUE;
+                }
+            });
+            sort(list, keys, Long.SIZE);
+        }));
+    }
+
+    // Sort the list into ascending order
+    public static void parallelRadixSort(int[] list) {
+        if (list.length < SMALL_SORT) {
+            Arrays.sort(list);
+            return;
+        }
+        long[] keys = new long[list.length];
+        ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> {
+            ParallelQuickSort.forEachBlock(blocks(list.length), b -> {
+                for (int i = blockStart(list.length, b), end = blockStart(list.length, b + 1); i < end; i++) {
+                    keys[i] = (list[i] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+                }
+            });
+            sort(null, keys, Integer.SIZE);
+            ParallelQuickSort.forEachBlock(blocks(list.length), b -> {
+                for (int i = blockStart(list.length, b), end = blockStart(list.length, b + 1); i < end; i++) {
+                    list[i] = (int) keys[i] ^ Integer.MIN_VALUE;
+                }
+            });
+        }));
+    }
+
+    // Sort the list into ascending order
+    public static void parallelRadixSort(long[] list) {
+        if (list.length < SMALL_SORT) {
+            Arrays.sort(list);
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> {
+            flipSigns(list);
+            sort(null, list, Long.SIZE);
+            flipSigns(list);
+        }));
+    }
+
+    // Turn signed longs into keys that order as unsigned numbers, and back
+    private static void flipSigns(long[] list) {
+        ParallelQuickSort.forEachBlock(blocks(list.length), b -> {
+            for (int i = blockStart(list.length, b), end = blockStart(list.length, b + 1); i < end; i++) {
+                list[i] ^= Long.MIN_VALUE;
+            }
+        });
+    }
+
+    // Number of blocks a list is cut into for each parallel step
+    private static int blocks(int length) {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        return Math.max(1, Math.min(parallelism * ParallelQuickSort.TASKS_PER_THREAD, length / MIN_BLOCK_SIZE));
+    }
+
+    // First index of block b; block blocks(length) starts at length
+    private static int blockStart(int length, int b) {
+        return (int) ((long) length * b / blocks(length));
+    }
+
+    // Radix sort list by the unsigned keys, which use the low keyBits bits.
+    // With a null list only the keys are sorted, and left sorted in keys.
+    private static <T> void sort(T[] list, long[] keys, int keyBits) {
+        int n = keys.length;
+        int blocks = blocks(n);
+
+        // Bits that differ between some keys; digits outside them need no pass
+        long[] differs = new long[blocks];
+        ParallelQuickSort.forEachBlock(blocks, b -> {
+            long first = keys[0], bits = 0;
+            for (int i = blockStart(n, b), end = blockStart(n, b + 1); i < end; i++) {
+                bits |= keys[i] ^ first;
+            }
+            differs[b] = bits;
+        });
+        long differing = 0;
+        for (long bits : differs) {
+            differing |= bits;
+        }
+
+        Object[] from = list, to = list == null ? null : new Object[n];
+        long[] fromKeys = keys, toKeys = new long[n];
+        int[][] counts = new int[blocks][BUCKETS];
+        for (int shift = 0; shift < keyBits; shift += RADIX_BITS) {
+            if ((differing >>> shift & (BUCKETS - 1)) == 0) {
+                continue;
+            }
+            int digitShift = shift;
+            Object[] src = from, dst = to;
+            long[] srcKeys = fromKeys, dstKeys = toKeys;
+
+            // Per-block histograms of this digit
+            ParallelQuickSort.forEachBlock(blocks, b -> {
+                int[] count = counts[b];
+                Arrays.fill(count, 0);
+                for (int i = blockStart(n, b), end = blockStart(n, b + 1); i < end; i++) {
+                    count[(int) (srcKeys[i] >>> digitShift) & (BUCKETS - 1)]++;
+                }
+            });
+
+            // Turn the counts into output positions: by digit, then by block
+            int position = 0;
+            for (int digit = 0; digit < BUCKETS; digit++) {
+                for (int b = 0; b < blocks; b++) {
+                    int count = counts[b][digit];
+                    counts[b][digit] = position;
+                    position += count;
+                }
+            }
+
+            // Stable scatter
+            ParallelQuickSort.forEachBlock(blocks, b -> {
+                int[] next = counts[b];
+                int start = blockStart(n, b), end = blockStart(n, b + 1);
+                if (src == null) {
+                    for (int i = start; i < end; i++) {
+                        long k = srcKeys[i];
+                        dstKeys[next[(int) (k >>> digitShift) & (BUCKETS - 1)]++] = k;
+                    }
+                } else {
+                    for (int i = start; i < end; i++) {
+                        long k = srcKeys[i];
+                        int j = next[(int) (k >>> digitShift) & (BUCKETS - 1)]++;
+                        dst[j] = src[i];
+                        dstKeys[j] = k;
+                    }
+                }
+            });
+
+            from = dst;
+            to = src;
+            fromKeys = dstKeys;
+            toKeys = srcKeys;
+        }
+
+        if (list == null && fromKeys != keys) {
+            long[] result = fromKeys;
+            ParallelQuickSort.forEachBlock(blocks, b -> {
+                int start = blockStart(n, b);
+                System.arraycopy(result, start, keys, start, blockStart(n, b + 1) - start);
+            });
+        } else if (from != list) {
+            Object[] result = from;
+            ParallelQuickSort.forEachBlock(blocks, b -> {
+                int start = blockStart(n, b);
+                System.arraycopy(result, start, list, start, blockStart(n, b + 1) - start);
+            });
+        }
+    }
+
+    // Testing and Benchmarking Functions
+
+    // A record keyed by id, with its original position to check stability
+    static class Row {
+        final long id;
+        final int position;
+
+        Row(long id, int position) {
+            this.id = id;
+            this.position = position;
+        }
+
+        long getId() {
+            return id;
+        }
+    }
+
+    public static void testSort() {
+        java.util.Random random = new java.util.Random(42);
+        for (int size : new int[] { 0, 1, 100, 1000, 200000 }) {
+            Row[] rows = new Row[size];
+            Integer[] ints = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = new Row(random.nextInt(1000) - 500L + (i % 3 == 0 ? Long.MIN_VALUE / 2 : 0), i);
+                ints[i] = random.nextInt();
+            }
+            Row[] expected = rows.clone();
+            Integer[] expectedInts = ints.clone();
+            Arrays.sort(expected, Comparator.comparingLong(Row::getId)); // stable
+            Arrays.sort(expectedInts);
+            parallelRadixSortByLong(rows, r -> r.id);
+            parallelRadixSortByInt(ints, i -> i);
+            if (!Arrays.equals(rows, expected) || !Arrays.equals(ints, expectedInts)) {
+                throw new RuntimeException("Sorting failed!");
+            }
+        }
+        System.out.println("Sorting successful!");
+    }
+
+    public static void main(String[] args) {
+        testSort();
+
+        // Benchmarking with a large array of records keyed by a timestamp-like long
+        int numRuns = 10;
+        int arraySize = 2000000;
+        Row[] rows = new Row[arraySize];
+        long base = System.currentTimeMillis();
+        for (int i = 0; i < arraySize; i++) {
+            rows[i] = new Row(base + (long) (Math.random() * 86400000L), i);
+        }
+        Comparator<Row> byId = Comparator.comparingLong(Row::getId);
+
+        long comparisonTime = 0, radixTime = 0;
+        for (int i = 0; i < numRuns; i++) {
+            Row[] copy = rows.clone();
+            long startTime = System.nanoTime();
+            Arrays.parallelSort(copy, byId);
+            comparisonTime += System.nanoTime() - startTime;
+
+            copy = rows.clone();
+            startTime = System.nanoTime();
+            parallelRadixSortByLong(copy, r -> r.id);
+            radixTime += System.nanoTime() - startTime;
+        }
+
+        System.out.println("Parallel Comparison Sort Time: " + comparisonTime / numRuns + " ns");
+        System.out.println("Parallel Radix Sort Time: " + radixTime / numRuns + " ns");
+        System.out.println("Speedup: " + (double) comparisonTime / radixTime);
+    }
+}
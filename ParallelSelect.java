@@ -0,0 +1,248 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Parallel selection: finding the items of given ranks (the median, percentiles,
+// the k smallest or largest) without sorting the whole list.
+//
+// Selection partitions with ParallelQuickSort.partition, three-way so that a
+// rank landing among keys equal to the pivot is settled at once, and then only
+// carries on into the sides that still hold wanted ranks. With a single rank
+// that is one side per level, about 2n comparisons in all; several ranks are
+// found in one pass, the sides holding them being searched as parallel
+// subtasks. Large ranges are partitioned in parallel, as in ParallelQuickSort.
+// A range that is still being partitioned after Sort.depthLimit levels is
+// simply sorted, which bounds the worst case at O(n log n).
+//
+// All methods rearrange the list: afterwards every requested rank holds the
+// item it would hold if the list were sorted, smaller items are before it and
+// larger ones after.
+public class ParallelSelect {
+
+    private ParallelSelect() {
+    }
+
+    // Return the item of the given rank (0 for the smallest)
+    public static <T extends Comparable<? super T>> T select(T[] list, int rank) {
+        selectAll(list, rank);
+        return list[rank];
+    }
+
+    // Put the items of all the given ranks in their sorted places in one pass
+    public static <T extends Comparable<? super T>> void selectAll(T[] list, int... ranks) {
+        int[] sorted = ranks.clone();
+        Arrays.sort(sorted);
+        if (sorted.length == 0) {
+            return;
+        }
+        if (sorted[0] < 0 || sorted[sorted.length - 1] >= list.length) {
+            throw new IllegalArgumentException("Rank out of range for a list of " + list.length);
+        }
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        boolean parallel = parallelism > 1 && list.length > ParallelQuickSort.MIN_PARALLEL_PARTITION;
+        Object[] scratch = parallel ? new Object[list.length] : null;
+        byte[] classes = parallel ? new byte[list.length] : null;
+        ForkJoinPool.commonPool().invoke(new SelectTask<>(list, 0, list.length - 1, sorted, 0, sorted.length - 1,
+                Sort.depthLimit(list.length), scratch, classes, parallelism));
+    }
+
+    // Return the given percentiles (from 0 to 100) of the list, by the
+    // nearest-rank method, all found in one pass
+    public static <T extends Comparable<? super T>> List<T> percentiles(T[] list, double... percentiles) {
+        if (list.length == 0) {
+            throw new IllegalArgumentException("No percentiles of an empty list");
+        }
+        int[] ranks = new int[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            double p = percentiles[i];
+            if (!(p >= 0.0 && p <= 100.0)) {
+                throw new IllegalArgumentException("Percentile out of range: " + p);
+            }
+            ranks[i] = Math.max(0, (int) Math.ceil(p / 100.0 * list.length) - 1);
+        }
+        selectAll(list, ranks);
+        List<T> result = new ArrayList<>(ranks.length);
+        for (int rank : ranks) {
+            result.add(list[rank]);
+        }
+        return result;
+    }
+
+    // Put the k smallest items, in ascending order, at the start of the list
+    public static <T extends Comparable<? super T>> void partialSort(T[] list, int k) {
+        if (k < 0 || k > list.length) {
+            throw new IllegalArgumentException("k out of range: " + k);
+        }
+        if (k == 0) {
+            return;
+        }
+        if (k < list.length) {
+            selectAll(list, k - 1);
+        }
+        ForkJoinPool.commonPool().invoke(new ParallelQuickSort<>(list, 0, k - 1));
+    }
+
+    // Return the k largest items, largest first. They are also left in
+    // ascending order at the end of the list.
+    public static <T extends Comparable<? super T>> List<T> topK(T[] list, int k) {
+        if (k < 0 || k > list.length) {
+            throw new IllegalArgumentException("k out of range: " + k);
+        }
+        int from = list.length - k;
+        if (k == 0) {
+            return new ArrayList<>();
+        }
+        if (from > 0) {
+            selectAll(list, from);
+        }
+        ForkJoinPool.commonPool().invoke(new ParallelQuickSort<>(list, from, list.length - 1));
+        List<T> result = new ArrayList<>(Arrays.asList(list).subList(from, list.length));
+        Collections.reverse(result);
+        return result;
+    }
+
+    // Selection of ranks[first..last] (ascending) within list[low..high]
+    static class SelectTask<T extends Comparable<? super T>> extends RecursiveAction {
+        private final T[] list;
+        private int low;
+        private int high;
+        private final int[] ranks;
+        private int first;
+        private int last;
+        private int depth;
+        private final Object[] scratch;
+        private final byte[] classes;
+        private final int parallelism;
+
+        SelectTask(T[] list, int low, int high, int[] ranks, int first, int last, int depth,
+                Object[] scratch, byte[] classes, int parallelism) {
+            this.list = list;
+            this.low = low;
+            this.high = high;
+            this.ranks = ranks;
+            this.first = first;
+            this.last = last;
+            this.depth = depth;
+            this.scratch = scratch;
+            this.classes = classes;
+            this.parallelism = parallelism;
+        }
+
+        @Override
+        protected void compute() {
+            while (first <= last) {
+                if (high - low < Sort.INSERTION_THRESHOLD || depth-- == 0) {
+                    Sort.quickSort(list, low, high, Sort.Partitioning.THREE_WAY);
+                    return;
+                }
+                int[] equal = ParallelQuickSort.partition(list, low, high, Sort.Partitioning.THREE_WAY,
+                        high - low + 1 > ParallelQuickSort.MIN_PARALLEL_PARTITION ? scratch : null, classes,
+                        parallelism);
+                // Ranks before equal[0] are on the left, ranks after equal[1] on
+                // the right; those between are settled
+                int leftLast = first - 1;
+                while (leftLast < last && ranks[leftLast + 1] < equal[0]) {
+                    leftLast++;
+                }
+                int rightFirst = leftLast + 1;
+                while (rightFirst <= last && ranks[rightFirst] <= equal[1]) {
+                    rightFirst++;
+                }
+                boolean left = leftLast >= first, right = rightFirst <= last;
+
+                if (left && right) {
+                    SelectTask<T> leftTask = new SelectTask<>(list, low, equal[0] - 1, ranks, first, leftLast,
+                            depth, scratch, classes, parallelism);
+                    SelectTask<T> rightTask = new SelectTask<>(list, equal[1] + 1, high, ranks, rightFirst, last,
+                            depth, scratch, classes, parallelism);
+                    if (high - low + 1 > ParallelQuickSort.MIN_SEQUENTIAL_THRESHOLD) {
+                        invokeAll(leftTask, rightTask);
+                    } else {
+                        leftTask.compute();
+                        rightTask.compute();
+                    }
+                    return;
+                } else if (left) {
+                    high = equal[0] - 1;
+                    last = leftLast;
+                } else if (right) {
+                    low = equal[1] + 1;
+                    first = rightFirst;
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Testing and Benchmarking Functions
+
+    public static void testSelect() {
+        java.util.Random random = new java.util.Random(42);
+        for (int size : new int[] { 1, 2, 10, 1000, 300000 }) {
+            for (int distinct : new int[] { 3, Integer.MAX_VALUE }) {
+                Integer[] list = new Integer[size];
+                for (int i = 0; i < size; i++) {
+                    list[i] = random.nextInt(distinct);
+                }
+                Integer[] sorted = list.clone();
+                Arrays.sort(sorted);
+
+                int[] ranks = { 0, size / 2, size - 1, random.nextInt(size), random.nextInt(size) };
+                Integer[] copy = list.clone();
+                selectAll(copy, ranks);
+                for (int rank : ranks) {
+                    if (!copy[rank].equals(sorted[rank])) {
+                        throw new RuntimeException("Selection failed!");
+                    }
+                }
+
+                int k = Math.min(size, 50);
+                copy = list.clone();
+                partialSort(copy, k);
+                List<Integer> top = topK(list.clone(), k);
+                for (int i = 0; i < k; i++) {
+                    if (!copy[i].equals(sorted[i]) || !top.get(i).equals(sorted[size - 1 - i])) {
+                        throw new RuntimeException("Partial sort failed!");
+                    }
+                }
+            }
+        }
+        System.out.println("Selection successful!");
+    }
+
+    public static void main(String[] args) {
+        testSelect();
+
+        // Percentiles of a large list, against sorting it
+        int numRuns = 10;
+        int arraySize = 2000000;
+        Integer[] largeArr = new Integer[arraySize];
+        for (int i = 0; i < arraySize; i++) {
+            largeArr[i] = (int) (Math.random() * 1000000);
+        }
+        double[] wanted = { 50, 90, 95, 99, 99.9 };
+
+        long sortTime = 0, selectTime = 0;
+        List<Integer> result = null;
+        for (int i = 0; i < numRuns; i++) {
+            Integer[] copy = largeArr.clone();
+            long startTime = System.nanoTime();
+            ParallelQuickSort.parallelQuickSort(copy);
+            sortTime += System.nanoTime() - startTime;
+
+            copy = largeArr.clone();
+            startTime = System.nanoTime();
+            result = percentiles(copy, wanted);
+            selectTime += System.nanoTime() - startTime;
+        }
+
+        System.out.println("Percentiles " + Arrays.toString(wanted) + ": " + result);
+        System.out.println("Sort Time: " + sortTime / numRuns + " ns");
+        System.out.println("Select Time: " + selectTime / numRuns + " ns");
+        System.out.println("Speedup: " + (double) sortTime / selectTime);
+    }
+}
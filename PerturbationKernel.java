@@ -0,0 +1,99 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Deep-zoom kernel using perturbation theory. One reference orbit Z is
+// computed at the view's centre in arbitrary precision; every other pixel
+// c = C + dc then only iterates its difference d from that orbit in doubles:
+//
+//   d(n+1) = (2 Z(n) + d(n)) d(n) + dc
+//
+// The (x1 + j * da, b) points passed to escapeTimes are the offsets dc, not
+// absolute coordinates. When the full value Z + d becomes smaller than d the
+// pixel has drifted too far from the reference and its remaining iterations
+// would lose precision (a glitch). The pixel is then rebased: Z + d becomes
+// its new delta against the start of the reference orbit. The same happens
+// when a pixel outlives a reference orbit that escaped early.
+public final class PerturbationKernel implements MandelbrotKernel {
+  private final double[] refX; // reference orbit Z(0..length-1) rounded to doubles
+  private final double[] refY;
+  private final int length;
+  private final AtomicLong rebases = new AtomicLong();
+
+  // Compute the reference orbit of the centre for up to maxIterations
+  // iterations, using the given number of decimal digits
+  public PerturbationKernel(BigDecimal centreX, BigDecimal centreY, int maxIterations, int precision) {
+    MathContext mc = new MathContext(precision);
+    double[] xs = new double[maxIterations + 1];
+    double[] ys = new double[maxIterations + 1];
+    BigDecimal x = BigDecimal.ZERO, y = BigDecimal.ZERO;
+    BigDecimal four = BigDecimal.valueOf(4);
+    int n = 0;
+    while (true) {
+      xs[n] = x.doubleValue();
+      ys[n] = y.doubleValue();
+      if (n == maxIterations || xs[n] * xs[n] + ys[n] * ys[n] > 4.0
+          && x.multiply(x, mc).add(y.multiply(y, mc), mc).compareTo(four) > 0) {
+        break;
+      }
+      BigDecimal xx = x.multiply(x, mc).subtract(y.multiply(y, mc), mc).add(centreX, mc);
+      y = x.multiply(y, mc).multiply(BigDecimal.valueOf(2), mc).add(centreY, mc);
+      x = xx;
+      n++;
+    }
+    length = n + 1;
+    refX = xs;
+    refY = ys;
+  } // constructor
+
+  public PerturbationKernel(DeepViewport view, int xsize, int ysize, int maxIterations) {
+    this(view.getCentreX(), view.getCentreY(), maxIterations, view.precision(xsize, ysize));
+  } // constructor
+
+  // Number of points in the reference orbit
+  public int getReferenceLength() {
+    return length;
+  }
+
+  // Number of times a pixel has been rebased onto the start of the orbit
+  public long getRebases() {
+    return rebases.get();
+  }
+
+  @Override
+  public void escapeTimes(double x1, double da, int from, int to, double b, int maxIterations,
+      int[] out, int offset) {
+    long rebased = 0;
+    for (int j = from; j < to; j++) {
+      double dcx = x1 + j * da;
+      double dx = 0.0, dy = 0.0;
+      int m = 0; // position in the reference orbit
+      int n = 0;
+      while (n < maxIterations) {
+        double zx = refX[m], zy = refY[m];
+        double tx = 2 * zx + dx, ty = 2 * zy + dy;
+        double nx = tx * dx - ty * dy + dcx;
+        dy = tx * dy + ty * dx + b;
+        dx = nx;
+        m++;
+        n++;
+        double fx = refX[m] + dx, fy = refY[m] + dy;
+        double mag = fx * fx + fy * fy;
+        if (mag > 4.0) {
+          break;
+        }
+        if (mag < dx * dx + dy * dy || m == length - 1) {
+          dx = fx;
+          dy = fy;
+          m = 0;
+          rebased++;
+        }
+      }
+      out[offset++] = n;
+    }
+    if (rebased != 0) {
+      rebases.addAndGet(rebased);
+    }
+  } // escapeTimes
+}
+// class PerturbationKernel
@@ -0,0 +1,252 @@
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+// Spreads the tiles of an image across a pool of RenderWorker JVMs.
+//
+// Tiles are pulled from a shared queue by a few sender threads per worker, so
+// faster workers simply take more tiles. A worker whose call fails is dropped
+// and its tile goes back on the queue. Once the queue is empty, idle senders
+// re-issue tiles that have been outstanding for longer than the straggler
+// timeout, and whichever copy finishes first is used. If every worker has
+// gone, the remaining tiles are computed locally, in parallel on the common
+// pool.
+//
+// A hung worker holds its sender thread until RMI gives up on it; setting
+// sun.rmi.transport.tcp.responseTimeout bounds that wait.
+public class RenderCoordinator {
+  public static final long DEFAULT_STRAGGLER_MILLIS = 2000;
+
+  private final List<Worker> workers = new ArrayList<>();
+  private final int tileSize;
+  private final long stragglerMillis;
+  private final ForkJoinPool localPool = ForkJoinPool.commonPool();
+  private final MandelbrotRenderer local; // fallback when no worker is left
+  private final ExecutorService senders = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "render-sender");
+    t.setDaemon(true);
+    return t;
+  });
+
+  public RenderCoordinator(List<String> urls) {
+    this(urls, MandelbrotRenderer.DEFAULT_TILE_SIZE, DEFAULT_STRAGGLER_MILLIS);
+  } // constructor
+
+  public RenderCoordinator(List<String> urls, int tileSize, long stragglerMillis) {
+    if (urls.isEmpty()) {
+      throw new IllegalArgumentException("No workers given");
+    }
+    for (String url : urls) {
+      workers.add(new Worker(url));
+    }
+    this.tileSize = tileSize;
+    this.stragglerMillis = stragglerMillis;
+    local = new MandelbrotRenderer(localPool, tileSize);
+  } // constructor
+
+  // Render the viewport on the workers, returning iteration counts in
+  // row-major order, as MandelbrotRenderer.render does
+  public int[] render(Viewport view, int xsize, int ysize, int maxIterations)
+      throws InterruptedException {
+    int[] counts = new int[xsize * ysize];
+    render(view, xsize, ysize, maxIterations, null, counts);
+    return counts;
+  } // render
+
+  // Render the viewport on the workers into a row-major buffer of ARGB pixels
+  public void render(Viewport view, int xsize, int ysize, Palette palette, int[] argb)
+      throws InterruptedException {
+    render(view, xsize, ysize, palette.getMaxIterations(), palette, argb);
+  } // render
+
+  private void render(Viewport view, int xsize, int ysize, int maxIterations, Palette palette,
+      int[] out) throws InterruptedException {
+    if (maxIterations <= 0) {
+      throw new IllegalArgumentException("Iteration limit must be positive: " + maxIterations);
+    }
+    Frame frame = new Frame(new TileGrid(view, xsize, ysize, tileSize), maxIterations, palette, out);
+
+    for (Worker w : workers) {
+      w.connect(); // reconnects workers that failed during an earlier render
+      if (w.stub != null) {
+        for (int i = 0; i < w.parallelism; i++) {
+          senders.execute(() -> send(w, frame));
+        }
+      }
+    }
+
+    while (!frame.remaining.await(50, TimeUnit.MILLISECONDS)) {
+      if (workers.stream().noneMatch(w -> w.stub != null)) {
+        System.err.println("No render workers left; finishing locally.");
+        renderLocally(frame);
+      }
+    }
+  } // render
+
+  // Compute every tile not yet done on the local renderer's pool. A parallel
+  // stream run from inside the pool splits across that pool's threads.
+  private void renderLocally(Frame frame) {
+    localPool.submit(() -> IntStream.range(0, frame.tiles).parallel()
+        .filter(tile -> frame.done.get(tile) == 0)
+        .forEach(tile -> complete(frame, tile, local.renderTile(frame.grid,
+            frame.grid.tileX(tile), frame.grid.tileY(tile), frame.maxIterations))))
+        .join();
+  } // renderLocally
+
+  // Sender loop: keep taking tiles for one worker until the frame is finished
+  private void send(Worker w, Frame frame) {
+    while (frame.remaining.getCount() > 0 && w.stub != null) {
+      Integer tile = frame.pending.poll();
+      if (tile == null) {
+        tile = straggler(frame);
+        if (tile == null) {
+          try {
+            frame.remaining.await(10, TimeUnit.MILLISECONDS);
+          } catch (InterruptedException e) {
+            return;
+          }
+          continue;
+        }
+      }
+      if (frame.done.get(tile) != 0) {
+        continue;
+      }
+      frame.started.set(tile, System.currentTimeMillis());
+      long tx = frame.grid.tileX(tile), ty = frame.grid.tileY(tile);
+      try {
+        RenderWorker stub = w.stub;
+        if (stub == null) {
+          frame.pending.add(tile);
+          return;
+        }
+        byte[] data = stub.renderTile(new TileJob(frame.grid, tx, ty, frame.maxIterations));
+        complete(frame, tile, TileCodec.decode(data, tileSize * tileSize));
+      } catch (RemoteException | RuntimeException e) {
+        System.err.println("Render worker " + w.url + " failed: " + e);
+        w.stub = null;
+        if (frame.done.get(tile) == 0) {
+          frame.pending.add(tile);
+        }
+        return;
+      }
+    }
+  } // send
+
+  // An outstanding tile that has taken longer than the straggler timeout and
+  // has not been re-issued yet, or null
+  private Integer straggler(Frame frame) {
+    long now = System.currentTimeMillis();
+    for (int tile = 0; tile < frame.tiles; tile++) {
+      if (frame.done.get(tile) == 0 && frame.started.get(tile) != 0
+          && now - frame.started.get(tile) > stragglerMillis
+          && frame.reissued.compareAndSet(tile, 0, 1)) {
+        return tile;
+      }
+    }
+    return null;
+  } // straggler
+
+  // Keep the first result for a tile and drop any later duplicate
+  private void complete(Frame frame, int tile, int[] counts) {
+    if (frame.done.compareAndSet(tile, 0, 1)) {
+      frame.grid.copyTile(frame.grid.tileX(tile), frame.grid.tileY(tile), counts, frame.out,
+          frame.palette);
+      frame.remaining.countDown();
+    }
+  } // complete
+
+  public void shutdown() {
+    senders.shutdownNow();
+  } // shutdown
+
+  // Inner classes
+
+  // A remote worker; stub is null while it is unreachable
+  private static class Worker {
+    final String url;
+    volatile RenderWorker stub;
+    int parallelism;
+
+    Worker(String url) {
+      this.url = url;
+    } // constructor
+
+    void connect() {
+      if (stub != null) {
+        return;
+      }
+      try {
+        RenderWorker w = (RenderWorker) Naming.lookup(url);
+        parallelism = Math.max(1, w.getParallelism());
+        stub = w;
+      } catch (RemoteException | NotBoundException | MalformedURLException e) {
+        System.err.println("Cannot reach render worker " + url + ": " + e);
+      }
+    } // connect
+  } // inner class Worker
+
+  // Progress of one distributed render
+  private static class Frame {
+    final TileGrid grid;
+    final int maxIterations;
+    final Palette palette; // null when writing raw iteration counts
+    final int[] out;
+    final int tiles;
+    final ConcurrentLinkedQueue<Integer> pending = new ConcurrentLinkedQueue<>();
+    final AtomicIntegerArray done;
+    final AtomicIntegerArray reissued;
+    final AtomicLongArray started;
+    final CountDownLatch remaining;
+
+    Frame(TileGrid grid, int maxIterations, Palette palette, int[] out) {
+      this.grid = grid;
+      this.maxIterations = maxIterations;
+      this.palette = palette;
+      this.out = out;
+      tiles = grid.tileCount();
+      for (int tile = 0; tile < tiles; tile++) {
+        pending.add(tile);
+      }
+      done = new AtomicIntegerArray(tiles);
+      reissued = new AtomicIntegerArray(tiles);
+      started = new AtomicLongArray(tiles);
+      remaining = new CountDownLatch(tiles);
+    } // constructor
+  } // inner class Frame
+
+  // Render a test frame on the given workers and check it against a local
+  // render: java RenderCoordinator rmi://localhost:2001/RenderWorker ...
+  public static void main(String[] args) throws Exception {
+    List<String> urls = Arrays.asList(args);
+    if (urls.isEmpty()) {
+      urls = List.of("rmi://localhost/" + RenderWorkerImpl.NAME);
+    }
+    RenderCoordinator coordinator = new RenderCoordinator(urls);
+    Viewport view = new Viewport(-2.25, -1.8, 3.0, 3.3);
+    int size = 1600, maxIterations = 2000;
+
+    long start = System.currentTimeMillis();
+    int[] remote = coordinator.render(view, size, size, maxIterations);
+    long end = System.currentTimeMillis();
+    System.out.println("Distributed time: " + (end - start) + "ms.");
+
+    int[] expected = new MandelbrotRenderer(ForkJoinPool.commonPool(), coordinator.tileSize)
+        .render(view, size, size, maxIterations);
+    System.out.println(Arrays.equals(remote, expected) ? "Results match." : "Results differ!");
+    coordinator.shutdown();
+  } // main
+}
+// class RenderCoordinator
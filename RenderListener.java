@@ -0,0 +1,12 @@
+// Callbacks from a progressive render. Both methods are called from worker
+// threads, and only for the generation that is current when the work finishes.
+public interface RenderListener {
+
+  // A tile (or, during the preview pass, a coarse version of it) has been
+  // written to the pixel buffer
+  void tileRendered(long generation, int x, int y, int width, int height, boolean preview);
+
+  // Every full-resolution tile of the generation has been written
+  void renderComplete(long generation);
+}
+// interface RenderListener
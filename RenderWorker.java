@@ -0,0 +1,13 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+// Remote interface of a Mandelbrot render worker JVM
+public interface RenderWorker extends Remote {
+
+  // Number of tiles the worker can usefully compute at the same time
+  int getParallelism() throws RemoteException;
+
+  // Compute a tile, returning its iteration counts encoded with TileCodec
+  byte[] renderTile(TileJob job) throws RemoteException;
+}
+// interface RenderWorker
@@ -0,0 +1,61 @@
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+// Render worker JVM. Each remote call computes one tile on the RMI connection
+// thread that received it; the coordinator keeps about getParallelism() calls
+// in flight, so all cores stay busy.
+//
+// To run several workers on one host, start each with its own registry port:
+//   java RenderWorkerImpl 2001
+//   java RenderWorkerImpl 2002
+// and point the coordinator at rmi://localhost:2001/RenderWorker and so on.
+public class RenderWorkerImpl extends UnicastRemoteObject implements RenderWorker {
+  public static final String NAME = "RenderWorker";
+
+  private final MandelbrotKernel kernel;
+  private final Map<Integer, MandelbrotRenderer> renderers = new ConcurrentHashMap<>();
+
+  protected RenderWorkerImpl(MandelbrotKernel kernel) throws RemoteException {
+    super();
+    this.kernel = kernel;
+  } // constructor
+
+  @Override
+  public int getParallelism() {
+    return Runtime.getRuntime().availableProcessors();
+  } // getParallelism
+
+  @Override
+  public byte[] renderTile(TileJob job) throws RemoteException {
+    if (job.getTileSize() <= 0 || job.getMaxIterations() <= 0) {
+      throw new IllegalArgumentException("Invalid tile job");
+    }
+    MandelbrotRenderer renderer = renderers.computeIfAbsent(job.getTileSize(),
+        size -> new MandelbrotRenderer(ForkJoinPool.commonPool(), size, kernel));
+    int[] counts = renderer.renderTile(job.getA0(), job.getPixelWidth(), job.getB0(),
+        job.getPixelHeight(), job.getMaxIterations());
+    return TileCodec.encode(counts);
+  } // renderTile
+
+  // Main method to start a worker: java RenderWorkerImpl [port]
+  public static void main(String[] args) {
+    try {
+      int port = args.length > 0 ? Integer.parseInt(args[0]) : Registry.REGISTRY_PORT;
+      RenderWorker worker = new RenderWorkerImpl(MandelbrotKernel.fromProperty());
+
+      // Create an RMI registry on the port and bind the worker in it
+      Registry registry = LocateRegistry.createRegistry(port);
+      registry.rebind(NAME, worker);
+
+      System.out.println("RenderWorker is ready on port " + port + ".");
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  } // main
+}
+// class RenderWorkerImpl
@@ -0,0 +1,99 @@
+// Scalar escape-time kernel for z = z^2 + c.
+//
+// Points inside the main cardioid and the period-2 bulb are known to be in the
+// set, so they are rejected analytically without iterating. For the remaining
+// interior points the orbit is compared against a saved value whose refresh
+// interval doubles (Brent's cycle detection); once the orbit returns to it the
+// point can never escape and the loop stops early. This is the reference that
+// other kernels must match exactly.
+public final class ScalarKernel implements MandelbrotKernel {
+  public static final ScalarKernel INSTANCE = new ScalarKernel();
+
+  // Two orbit points closer than this in both coordinates count as a cycle
+  static final double PERIOD_EPSILON = 1e-13;
+  // Iterations before the first periodicity checkpoint
+  static final int FIRST_CHECK = 8;
+
+  private static final double LOG2 = Math.log(2.0);
+
+  private ScalarKernel() {
+  }
+
+  @Override
+  public void escapeTimes(double x1, double da, int from, int to, double b, int maxIterations,
+      int[] out, int offset) {
+    for (int j = from; j < to; j++) {
+      out[offset++] = escapeTime(x1 + j * da, b, maxIterations);
+    }
+  } // escapeTimes
+
+  // True if c = a + bi lies in the main cardioid or the period-2 bulb
+  static boolean inCardioidOrBulb(double a, double b) {
+    double b2 = b * b;
+    double q = (a - 0.25) * (a - 0.25) + b2;
+    if (q * (q + (a - 0.25)) <= 0.25 * b2) {
+      return true;
+    }
+    return (a + 1.0) * (a + 1.0) + b2 <= 0.0625;
+  } // inCardioidOrBulb
+
+  // Number of iterations before |z| exceeds 2, capped at maxIterations
+  public static int escapeTime(double a, double b, int maxIterations) {
+    if (inCardioidOrBulb(a, b)) {
+      return maxIterations;
+    }
+    double x = 0.0, y = 0.0, xx;
+    double px = 0.0, py = 0.0; // saved orbit point for cycle detection
+    int checkpoint = FIRST_CHECK;
+    int n = 0;
+    while ((n < maxIterations) && ((x * x) + (y * y) < 4.0)) {
+      xx = x * x - y * y + a;
+      y = 2 * x * y + b;
+      x = xx;
+      n++;
+      if (Math.abs(x - px) < PERIOD_EPSILON && Math.abs(y - py) < PERIOD_EPSILON) {
+        return maxIterations;
+      }
+      if (n == checkpoint) {
+        px = x;
+        py = y;
+        checkpoint <<= 1;
+      }
+    }
+    return n;
+  } // escapeTime
+
+  // Fractional iteration count, continuous across escape bands. Points that do
+  // not escape return maxIterations.
+  public static double smoothEscapeTime(double a, double b, int maxIterations) {
+    if (inCardioidOrBulb(a, b)) {
+      return maxIterations;
+    }
+    double x = 0.0, y = 0.0, xx;
+    double px = 0.0, py = 0.0;
+    int checkpoint = FIRST_CHECK;
+    int n = 0;
+    // a larger bailout radius makes the fractional part smoother
+    while ((n < maxIterations) && ((x * x) + (y * y) < 256.0)) {
+      xx = x * x - y * y + a;
+      y = 2 * x * y + b;
+      x = xx;
+      n++;
+      if (Math.abs(x - px) < PERIOD_EPSILON && Math.abs(y - py) < PERIOD_EPSILON) {
+        return maxIterations;
+      }
+      if (n == checkpoint) {
+        px = x;
+        py = y;
+        checkpoint <<= 1;
+      }
+    }
+    if (n >= maxIterations) {
+      return maxIterations;
+    }
+    double logModulus = 0.5 * Math.log(x * x + y * y);
+    double nu = n + 1 - Math.log(logModulus / LOG2) / LOG2;
+    return Math.max(0.0, Math.min(nu, maxIterations));
+  } // smoothEscapeTime
+}
+// class ScalarKernel
@@ -1,9 +1,34 @@
 /**
  * This class contains a recursive form of the QuickSort algorithm.
+ * <P>
+ * The sort is an introsort: pivots are the median of three (or, for large
+ * ranges, the ninther), short ranges are finished with an insertion sort, and
+ * a range that is still being partitioned after about 2 log <I>n</I> levels
+ * is heap sorted instead, so no input can make it quadratic or overflow the
+ * stack.
+ * <P>
+ * Partitioning is two-way by default. The three-way mode gathers all the
+ * items equal to the pivot in the middle and never looks at them again,
+ * which makes lists with few distinct keys sort in close to linear time.
  * 
  * @author George Wells
  */
 public class Sort {
+  /**
+   * The ways in which a range can be partitioned.
+   */
+  public enum Partitioning {
+    /** Items less than or equal to the pivot, then items greater than it. */
+    TWO_WAY,
+    /** Items less than, equal to and greater than the pivot (Dutch National Flag). */
+    THREE_WAY
+  } // enum Partitioning
+
+  /** Ranges of at most this many items are insertion sorted. */
+  static final int INSERTION_THRESHOLD = 16;
+  /** Ranges of more than this many items take the ninther as pivot. */
+  static final int NINTHER_THRESHOLD = 128;
+
   /**
    * Partition a list between given start and end points, returning the partition
    * point. The value at <CODE>list[start]</CODE> is used as the partition
@@ -22,7 +47,7 @@ public class Sort {
    * @return The index of the partition point.
    */
   @SuppressWarnings("unchecked")
-  private static int partition(Comparable[] list, int start, int end) {
+  static int partition(Comparable[] list, int start, int end) {
     int left = start,
         right = end;
     Comparable tmp;
@@ -45,6 +70,172 @@ public class Sort {
     return right;
   } // partition
 
+  /**
+   * Partition a list between given start and end points into items less
+   * than, equal to and greater than the partition element, using Dijkstra's
+   * Dutch National Flag algorithm. The value at <CODE>list[start]</CODE> is
+   * used as the partition element.
+   * <BR>
+   * <I>Precondition:</I> The list contains data that implements
+   * the <CODE>Comparable</CODE> interface.
+   * <BR>
+   * <I>Postcondition:</I> The items before <CODE>list[lt]</CODE> are less than
+   * the partition element, the items from <CODE>list[lt]</CODE> to
+   * <CODE>list[gt]</CODE> are equal to it and the items after
+   * <CODE>list[gt]</CODE> are greater than it.
+   * 
+   * @param list  The list of items to be partitioned.
+   * @param start The index of the first item in the list to be considered.
+   * @param end   The index of the last item in the list to be considered.
+   * @return The indices <CODE>{ lt, gt }</CODE> of the first and last items
+   *         equal to the partition element.
+   */
+  @SuppressWarnings("unchecked")
+  static int[] partition3(Comparable[] list, int start, int end) {
+    Comparable pivot = list[start],
+        tmp;
+    int lt = start,
+        i = start + 1,
+        gt = end;
+    while (i <= gt) {
+      int c = list[i].compareTo(pivot);
+      if (c < 0) {
+        tmp = list[lt];
+        list[lt++] = list[i];
+        list[i++] = tmp;
+      } else if (c > 0) {
+        tmp = list[gt];
+        list[gt--] = list[i];
+        list[i] = tmp;
+      } else
+        i++;
+    }
+    return new int[] { lt, gt };
+  } // partition3
+
+  /**
+   * Return the index of the median of three items of a list.
+   * 
+   * @param list The list of items.
+   * @param a    The index of the first item.
+   * @param b    The index of the second item.
+   * @param c    The index of the third item.
+   * @return The index of the item whose value lies between the other two.
+   */
+  @SuppressWarnings("unchecked")
+  private static int median(Comparable[] list, int a, int b, int c) {
+    if (list[a].compareTo(list[b]) < 0) {
+      if (list[b].compareTo(list[c]) < 0)
+        return b;
+      return list[a].compareTo(list[c]) < 0 ? c : a;
+    }
+    if (list[a].compareTo(list[c]) < 0)
+      return a;
+    return list[b].compareTo(list[c]) < 0 ? c : b;
+  } // median
+
+  /**
+   * Choose a pivot for a range of a list and exchange it with
+   * <CODE>list[start]</CODE>, ready for <CODE>partition</CODE>. The pivot is
+   * the median of the first, middle and last items, or for large ranges the
+   * median of three such medians (Tukey's ninther).
+   * 
+   * @param list  The list of items to be partitioned.
+   * @param start The index of the first item in the list to be considered.
+   * @param end   The index of the last item in the list to be considered.
+   */
+  static void choosePivot(Comparable[] list, int start, int end) {
+    int mid = (start + end) >>> 1;
+    int pivot;
+    if (end - start > NINTHER_THRESHOLD) {
+      int eighth = (end - start) / 8;
+      pivot = median(list,
+          median(list, start, start + eighth, start + 2 * eighth),
+          median(list, mid - eighth, mid, mid + eighth),
+          median(list, end - 2 * eighth, end - eighth, end));
+    } else
+      pivot = median(list, start, mid, end);
+    Comparable tmp = list[start];
+    list[start] = list[pivot];
+    list[pivot] = tmp;
+  } // choosePivot
+
+  /**
+   * Sort a short range of a list into ascending order using an Insertion
+   * Sort.
+   * 
+   * @param list  The list of items to be sorted.
+   * @param start The index of the first item in the list to be considered.
+   * @param end   The index of the last item in the list to be considered.
+   */
+  @SuppressWarnings("unchecked")
+  private static void insertionSort(Comparable[] list, int start, int end) {
+    for (int i = start + 1; i <= end; i++) {
+      Comparable item = list[i];
+      int j = i - 1;
+      while (j >= start && list[j].compareTo(item) > 0) {
+        list[j + 1] = list[j];
+        j--;
+      }
+      list[j + 1] = item;
+    }
+  } // insertionSort
+
+  /**
+   * Sort a range of a list into ascending order using a Heap Sort. This is
+   * the fallback for ranges on which the Quick Sort recurses too deeply.
+   * 
+   * @param list  The list of items to be sorted.
+   * @param start The index of the first item in the list to be considered.
+   * @param end   The index of the last item in the list to be considered.
+   */
+  private static void heapSort(Comparable[] list, int start, int end) {
+    int n = end - start + 1;
+    for (int i = n / 2 - 1; i >= 0; i--)
+      siftDown(list, start, i, n);
+    for (int last = n - 1; last > 0; last--) {
+      Comparable tmp = list[start];
+      list[start] = list[start + last];
+      list[start + last] = tmp;
+      siftDown(list, start, 0, last);
+    }
+  } // heapSort
+
+  /**
+   * Restore the heap property below one node of a heap stored from
+   * <CODE>list[start]</CODE>.
+   * 
+   * @param list  The list holding the heap.
+   * @param start The index of the root of the heap.
+   * @param node  The heap position of the node to be moved down.
+   * @param size  The number of items in the heap.
+   */
+  @SuppressWarnings("unchecked")
+  private static void siftDown(Comparable[] list, int start, int node, int size) {
+    Comparable item = list[start + node];
+    int child;
+    while ((child = 2 * node + 1) < size) {
+      if (child + 1 < size && list[start + child].compareTo(list[start + child + 1]) < 0)
+        child++;
+      if (item.compareTo(list[start + child]) >= 0)
+        break;
+      list[start + node] = list[start + child];
+      node = child;
+    }
+    list[start + node] = item;
+  } // siftDown
+
+  /**
+   * Return the recursion depth beyond which a range of the given size is heap
+   * sorted: twice the base-2 logarithm of the size.
+   * 
+   * @param size The number of items to be sorted.
+   * @return The depth limit.
+   */
+  static int depthLimit(int size) {
+    return 2 * (32 - Integer.numberOfLeadingZeros(Math.max(size, 1)));
+  } // depthLimit
+
   /**
    * Sort a list of items into ascending order using a recursive form of the
    * Quick Sort.
@@ -54,19 +245,90 @@ public class Sort {
    * <BR>
    * <I>Postcondition:</I> The list between <CODE>start</CODE> and
    * <CODE>end</CODE> is in ascending order.
+   * <P>
+   * Only the smaller part of each partition is sorted recursively, so the
+   * stack depth is at most log <I>n</I>.
    * 
-   * @param list  The list of items to be sorted.
-   * @param start The index of the first item in the list to be considered.
-   * @param end   The index of the last item in the list to be considered.
+   * @param list         The list of items to be sorted.
+   * @param start        The index of the first item in the list to be considered.
+   * @param end          The index of the last item in the list to be considered.
+   * @param depth        The number of further levels of partitioning allowed
+   *                     before falling back to a Heap Sort.
+   * @param partitioning The kind of partitioning to use.
    */
-  private static void recursiveQS(Comparable[] list, int start, int end) {
-    if (start < end) {
-      int partitionPoint = partition(list, start, end);
-      recursiveQS(list, start, partitionPoint - 1);
-      recursiveQS(list, partitionPoint + 1, end);
+  static void recursiveQS(Comparable[] list, int start, int end, int depth,
+                          Partitioning partitioning) {
+    while (end - start >= INSERTION_THRESHOLD) {
+      if (depth-- == 0) {
+        heapSort(list, start, end);
+        return;
+      }
+      choosePivot(list, start, end);
+      int left, right; // the parts still to be sorted are start..left and right..end
+      if (partitioning == Partitioning.THREE_WAY) {
+        int[] equal = partition3(list, start, end);
+        left = equal[0] - 1;
+        right = equal[1] + 1;
+      } else {
+        int partitionPoint = partition(list, start, end);
+        left = partitionPoint - 1;
+        right = partitionPoint + 1;
+      }
+      if (left - start < end - right) {
+        recursiveQS(list, start, left, depth, partitioning);
+        start = right;
+      } else {
+        recursiveQS(list, right, end, depth, partitioning);
+        end = left;
+      }
     }
+    insertionSort(list, start, end);
   } // recursiveQS
 
+  /**
+   * Sort a range of a list of items into ascending order using a recursive
+   * form of the Quick Sort.
+   * <BR>
+   * <I>Precondition:</I> The list contains data that implements
+   * the <CODE>Comparable</CODE> interface.
+   * <BR>
+   * <I>Postcondition:</I> The list between <CODE>start</CODE> and
+   * <CODE>end</CODE> is in ascending order; the rest of the list is unchanged.
+   * 
+   * @param list         The list of items to be sorted.
+   * @param start        The index of the first item in the list to be sorted.
+   * @param end          The index of the last item in the list to be sorted.
+   * @param partitioning The kind of partitioning to use.
+   */
+  public static <T extends Comparable<? super T>> void quickSort(T[] list, int start, int end,
+                                                               Partitioning partitioning) {
+    recursiveQS(list, start, end, depthLimit(end - start + 1), partitioning);
+  } // quickSort
+
+  /**
+   * Sort a range of a list of items into ascending order using a recursive
+   * form of the Quick Sort with two-way partitioning.
+   * 
+   * @param list  The list of items to be sorted.
+   * @param start The index of the first item in the list to be sorted.
+   * @param end   The index of the last item in the list to be sorted.
+   */
+  public static <T extends Comparable<? super T>> void quickSort(T[] list, int start, int end) {
+    quickSort(list, start, end, Partitioning.TWO_WAY);
+  } // quickSort
+
+  /**
+   * Sort a list of items into ascending order using a recursive form of the
+   * Quick Sort with the given kind of partitioning.
+   * 
+   * @param list         The list of items to be sorted.
+   * @param partitioning The kind of partitioning to use.
+   */
+  public static <T extends Comparable<? super T>> void quickSort(T[] list,
+                                                               Partitioning partitioning) {
+    quickSort(list, 0, list.length - 1, partitioning);
+  } // quickSort
+
   /**
    * Sort a list of items into ascending order using a recursive form of the
    * Quick Sort.
@@ -83,7 +345,7 @@ public class Sort {
   public static <T extends Comparable<? super T>> void quickSort(T[] list)
   // Quick Sort the list - actually just calls recursiveQS
   {
-    recursiveQS(list, 0, list.length - 1);
+    quickSort(list, 0, list.length - 1);
   } // quickSort
 
 } // class Sort
@@ -0,0 +1,39 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+// Sorts measured by bench.SortBenchmark. As with MandelbrotBenchmarkTargets,
+// JMH cannot generate benchmarks in the default package, so the benchmark
+// looks these methods up by reflection once per trial and then only calls
+// the returned Consumers.
+public final class SortBenchmarkTargets {
+
+    private SortBenchmarkTargets() {
+    }
+
+    // Input of the named InputDistribution
+    public static Integer[] input(String distribution, int size, long seed) {
+        return InputDistribution.valueOf(distribution).generateBoxed(size, seed);
+    }
+
+    // The named sort. The parallel ones run on the given pool; Arrays.parallelSort
+    // forks into it when called from inside it, though it still sorts
+    // sequentially if the common pool has a single thread. threshold is the
+    // ParallelQuickSort sequential threshold (0 for adaptive).
+    public static Consumer<Integer[]> sorter(String algorithm, ForkJoinPool pool, int threshold) {
+        switch (algorithm) {
+            case "Sort.quickSort":
+                return Sort::quickSort;
+            case "Arrays.sort":
+                return Arrays::sort;
+            case "ParallelQuickSort":
+                return list -> ParallelQuickSort.parallelQuickSort(list, Sort.Partitioning.TWO_WAY, pool, threshold);
+            case "ParallelQuickSort.threeWay":
+                return list -> ParallelQuickSort.parallelQuickSort(list, Sort.Partitioning.THREE_WAY, pool, threshold);
+            case "Arrays.parallelSort":
+                return list -> pool.submit(() -> Arrays.parallelSort(list)).join();
+            default:
+                throw new IllegalArgumentException("Unknown sort: " + algorithm);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+// Interface of a sort worker JVM. A worker holds one partition per sort: the
+// coordinator uploads it in chunks, has it sorted, and downloads it in chunks,
+// so no single call carries a huge array.
+public interface SortWorker extends Remote {
+
+    // Number of threads the worker sorts with
+    int getParallelism() throws RemoteException;
+
+    // Start a partition of the given size, returning its id
+    long openPartition(int size) throws RemoteException;
+
+    // Store a chunk of the partition starting at offset
+    void putChunk(long partition, int offset, int[] chunk) throws RemoteException;
+
+    // Sort the partition in parallel
+    void sortPartition(long partition) throws RemoteException;
+
+    // Return length elements of the partition starting at offset
+    int[] getChunk(long partition, int offset, int length) throws RemoteException;
+
+    // Release the partition
+    void closePartition(long partition) throws RemoteException;
+}
@@ -0,0 +1,88 @@
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Implementation of the sort worker. Partitions are sorted with
+// ParallelPrimitiveSort on this JVM's common pool.
+//
+// To run several workers on one host, start each with its own registry port:
+//   java SortWorkerImpl 2101
+//   java SortWorkerImpl 2102
+// and point the coordinator at rmi://localhost:2101/SortWorker and so on.
+public class SortWorkerImpl extends UnicastRemoteObject implements SortWorker {
+
+    public static final String NAME = "SortWorker";
+
+    private final Map<Long, int[]> partitions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    protected SortWorkerImpl() throws RemoteException {
+        super();
+    }
+
+    @Override
+    public int getParallelism() {
+        return ForkJoinPool.getCommonPoolParallelism();
+    }
+
+    @Override
+    public long openPartition(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative partition size: " + size);
+        }
+        long id = nextId.incrementAndGet();
+        partitions.put(id, new int[size]);
+        return id;
+    }
+
+    @Override
+    public void putChunk(long partition, int offset, int[] chunk) {
+        System.arraycopy(chunk, 0, partition(partition), offset, chunk.length);
+    }
+
+    @Override
+    public void sortPartition(long partition) {
+        ParallelPrimitiveSort.parallelQuickSort(partition(partition));
+    }
+
+    @Override
+    public int[] getChunk(long partition, int offset, int length) {
+        int[] list = partition(partition);
+        return Arrays.copyOfRange(list, offset, offset + length);
+    }
+
+    @Override
+    public void closePartition(long partition) {
+        partitions.remove(partition);
+    }
+
+    private int[] partition(long id) {
+        int[] list = partitions.get(id);
+        if (list == null) {
+            throw new IllegalArgumentException("Unknown partition: " + id);
+        }
+        return list;
+    }
+
+    // Main method to start a worker: java SortWorkerImpl [port]
+    public static void main(String[] args) {
+        try {
+            int port = args.length > 0 ? Integer.parseInt(args[0]) : Registry.REGISTRY_PORT;
+            SortWorker worker = new SortWorkerImpl();
+
+            // Create an RMI registry on the port and bind the worker in it
+            Registry registry = LocateRegistry.createRegistry(port);
+            registry.rebind(NAME, worker);
+
+            System.out.println("SortWorker is ready on port " + port + ".");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Memory-bounded cache of computed tiles of iteration counts. Tiles are keyed
+// by their position on the global pixel grid of a zoom level (the size of a
+// pixel in the complex plane) and the iteration limit, so the same tile is
+// found again when a view is revisited or panned. The least recently used
+// tiles are evicted once the budget is exceeded.
+public class TileCache {
+  // Approximate per-entry overhead of the key, the map entry and the array header
+  private static final long ENTRY_OVERHEAD = 128;
+
+  private final long maxBytes;
+  private final LinkedHashMap<Key, int[]> tiles = new LinkedHashMap<>(256, 0.75f, true);
+  private long bytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public TileCache(long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("Cache budget must be positive: " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+  } // constructor
+
+  // Cached iteration counts of a tile, or null
+  public int[] get(Key key) {
+    int[] counts;
+    synchronized (this) {
+      counts = tiles.get(key);
+    }
+    if (counts != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return counts;
+  } // get
+
+  // Add a tile, evicting least recently used tiles to stay within budget.
+  // The array must not be modified afterwards.
+  public synchronized void put(Key key, int[] counts) {
+    int[] old = tiles.put(key, counts);
+    if (old != null) {
+      bytes -= sizeOf(old);
+    }
+    bytes += sizeOf(counts);
+    Iterator<Map.Entry<Key, int[]>> it = tiles.entrySet().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      Map.Entry<Key, int[]> eldest = it.next();
+      if (eldest.getKey().equals(key)) {
+        continue; // keep the tile just added
+      }
+      bytes -= sizeOf(eldest.getValue());
+      it.remove();
+      evictions.incrementAndGet();
+    }
+  } // put
+
+  public synchronized void clear() {
+    tiles.clear();
+    bytes = 0;
+  } // clear
+
+  private static long sizeOf(int[] counts) {
+    return 4L * counts.length + ENTRY_OVERHEAD;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public synchronized int size() {
+    return tiles.size();
+  }
+
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  @Override
+  public String toString() {
+    long h = getHits(), m = getMisses();
+    return "TileCache[tiles=" + size() + ", bytes=" + getBytes() + "/" + maxBytes + ", hits=" + h
+        + ", misses=" + m + ", evictions=" + getEvictions() + ", hit rate="
+        + (h + m == 0 ? 0 : (100 * h) / (h + m)) + "%]";
+  } // toString
+
+  // Inner classes
+
+  // Identifies one tile: the zoom level as the pixel size in each direction,
+  // the iteration limit, the tile size and the tile's grid position
+  public static final class Key {
+    private final long pixelWidthBits;
+    private final long pixelHeightBits;
+    private final int maxIterations;
+    private final int tileSize;
+    private final long tileX;
+    private final long tileY;
+
+    public Key(double pixelWidth, double pixelHeight, int maxIterations, int tileSize, long tileX,
+        long tileY) {
+      this.pixelWidthBits = Double.doubleToLongBits(pixelWidth);
+      this.pixelHeightBits = Double.doubleToLongBits(pixelHeight);
+      this.maxIterations = maxIterations;
+      this.tileSize = tileSize;
+      this.tileX = tileX;
+      this.tileY = tileY;
+    } // constructor
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof Key))
+        return false;
+      Key k = (Key) o;
+      return pixelWidthBits == k.pixelWidthBits && pixelHeightBits == k.pixelHeightBits
+          && maxIterations == k.maxIterations && tileSize == k.tileSize && tileX == k.tileX
+          && tileY == k.tileY;
+    } // equals
+
+    @Override
+    public int hashCode() {
+      int h = Long.hashCode(pixelWidthBits);
+      h = 31 * h + Long.hashCode(pixelHeightBits);
+      h = 31 * h + maxIterations;
+      h = 31 * h + tileSize;
+      h = 31 * h + Long.hashCode(tileX);
+      h = 31 * h + Long.hashCode(tileY);
+      return h;
+    } // hashCode
+  } // inner class Key
+}
+// class TileCache
@@ -0,0 +1,108 @@
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Compact wire format for a tile of iteration counts. Neighbouring pixels
+// usually have equal or close counts, so each count is stored as the
+// zigzag-encoded difference from the previous one in a variable-length
+// integer, and the result is deflated. A 64x64 tile typically shrinks from
+// 16 KB of ints to a few hundred bytes.
+public final class TileCodec {
+
+  private TileCodec() {
+  }
+
+  public static byte[] encode(int[] counts) {
+    byte[] raw = new byte[5 * counts.length + 5];
+    int pos = putVarint(raw, 0, counts.length);
+    int previous = 0;
+    for (int n : counts) {
+      int delta = n - previous;
+      pos = putVarint(raw, pos, (delta << 1) ^ (delta >> 31));
+      previous = n;
+    }
+
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(raw, 0, pos);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(pos / 4 + 64);
+      byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        int length = deflater.deflate(buffer);
+        out.write(buffer, 0, length);
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  } // encode
+
+  // Decode a tile that must hold exactly the given number of pixels. The data
+  // comes from another JVM, so nothing is allocated on the strength of a
+  // length it claims before that length has been checked.
+  public static int[] decode(byte[] data, int pixels) {
+    int maxRaw = 5 * pixels + 5; // What encode can produce for that many counts
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(data.length * 8, maxRaw));
+      byte[] buffer = new byte[4096];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalArgumentException("Truncated tile data");
+        }
+        if (out.size() + length > maxRaw) {
+          throw new IllegalArgumentException("Tile data too long for " + pixels + " pixels");
+        }
+        out.write(buffer, 0, length);
+      }
+      byte[] raw = out.toByteArray();
+
+      int[] pos = { 0 };
+      int count = getVarint(raw, pos);
+      if (count != pixels) {
+        throw new IllegalArgumentException("Tile has " + count + " pixels, expected " + pixels);
+      }
+      int[] counts = new int[count];
+      int previous = 0;
+      for (int i = 0; i < counts.length; i++) {
+        int zigzag = getVarint(raw, pos);
+        previous += (zigzag >>> 1) ^ -(zigzag & 1);
+        counts[i] = previous;
+      }
+      return counts;
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Corrupt tile data", e);
+    } finally {
+      inflater.end();
+    }
+  } // decode
+
+  private static int putVarint(byte[] buffer, int pos, int value) {
+    while ((value & ~0x7F) != 0) {
+      buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[pos++] = (byte) value;
+    return pos;
+  } // putVarint
+
+  private static int getVarint(byte[] buffer, int[] pos) {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      if (pos[0] == buffer.length) {
+        throw new IllegalArgumentException("Truncated tile data");
+      }
+      byte b = buffer[pos[0]++];
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  } // getVarint
+}
+// class TileCodec
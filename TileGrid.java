@@ -0,0 +1,160 @@
+// Layout of the tiles of one image on the grid of its zoom level. Pixel (j, i)
+// of the image is the point (originA + (ox + j) * da) + (originB + (oy + i) * db)i,
+// and grid tile (tx, ty) covers grid pixels tx * tileSize to (tx + 1) * tileSize - 1
+// across and ty * tileSize to (ty + 1) * tileSize - 1 down.
+//
+// While the offsets are exact in a double the origin is zero, so pixel centres
+// are whole multiples of the pixel size and a tile covers the same points in
+// every view at that zoom level. Deeper than that the grid starts at the
+// view's corner instead.
+public final class TileGrid {
+  // Largest grid offset that is still exact when held in a double
+  private static final double GRID_LIMIT = 1L << 52;
+
+  private final int xsize;
+  private final int ysize;
+  private final int tileSize;
+  private final double da;
+  private final double db;
+  private final double originA;
+  private final double originB;
+  private final long ox; // grid offsets of the image's first column and row
+  private final long oy;
+  private final long tileX0; // grid position of the first tile
+  private final long tileY0;
+  private final int across; // tiles per row of the image
+  private final int down;
+  private final boolean snapped;
+
+  public TileGrid(Viewport view, int xsize, int ysize, int tileSize) {
+    if (xsize <= 0 || ysize <= 0) {
+      throw new IllegalArgumentException("Image size must be positive: " + xsize + "x" + ysize);
+    }
+    if (tileSize <= 0) {
+      throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+    }
+    this.xsize = xsize;
+    this.ysize = ysize;
+    this.tileSize = tileSize;
+    da = view.getWidth() / xsize;
+    db = view.getHeight() / ysize;
+    double gx = view.getX1() / da;
+    double gy = view.getY1() / db;
+    snapped = Math.abs(gx) < GRID_LIMIT && Math.abs(gy) < GRID_LIMIT;
+    if (snapped) {
+      originA = 0.0;
+      originB = 0.0;
+      ox = Math.round(gx);
+      oy = Math.round(gy);
+    } else {
+      originA = view.getX1();
+      originB = view.getY1();
+      ox = 0;
+      oy = 0;
+    }
+    tileX0 = Math.floorDiv(ox, tileSize);
+    tileY0 = Math.floorDiv(oy, tileSize);
+    across = (int) (Math.floorDiv(ox + xsize - 1, tileSize) - tileX0 + 1);
+    down = (int) (Math.floorDiv(oy + ysize - 1, tileSize) - tileY0 + 1);
+  } // constructor
+
+  public int getXsize() {
+    return xsize;
+  }
+
+  public int getYsize() {
+    return ysize;
+  }
+
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  // Size of a pixel in the complex plane
+  public double getPixelWidth() {
+    return da;
+  }
+
+  public double getPixelHeight() {
+    return db;
+  }
+
+  // True if the grid is shared by every view at this zoom level
+  public boolean isSnapped() {
+    return snapped;
+  }
+
+  public int tileCount() {
+    return across * down;
+  }
+
+  // Grid position of the tile with the given index (0 to tileCount() - 1)
+  public long tileX(int tile) {
+    return tileX0 + tile % across;
+  }
+
+  public long tileY(int tile) {
+    return tileY0 + tile / across;
+  }
+
+  // Part of a tile inside the image, in image pixels (end exclusive)
+  public int imageX0(long tx) {
+    return (int) Math.max(tx * tileSize - ox, 0);
+  }
+
+  public int imageX1(long tx) {
+    return (int) Math.min((tx + 1) * tileSize - ox, xsize);
+  }
+
+  public int imageY0(long ty) {
+    return (int) Math.max(ty * tileSize - oy, 0);
+  }
+
+  public int imageY1(long ty) {
+    return (int) Math.min((ty + 1) * tileSize - oy, ysize);
+  }
+
+  // Position of image column j (or row i) within its tile
+  public int tileColumn(long tx, int j) {
+    return (int) (ox + j - tx * tileSize);
+  }
+
+  public int tileRow(long ty, int i) {
+    return (int) (oy + i - ty * tileSize);
+  }
+
+  // Real and imaginary parts of the tile's first column and row
+  public double tileOriginA(long tx) {
+    return originA + (tx * tileSize) * da;
+  }
+
+  public double tileOriginB(long ty) {
+    return originB + (ty * tileSize) * db;
+  }
+
+  // Point of image pixel (j, i)
+  public double pixelA(int j) {
+    return originA + (ox + j) * da;
+  }
+
+  public double pixelB(int i) {
+    return originB + (oy + i) * db;
+  }
+
+  // Copy the part of a full tile of iteration counts that lies inside the
+  // image into a row-major image buffer, colouring it if a palette is given
+  public void copyTile(long tx, long ty, int[] counts, int[] out, Palette palette) {
+    int x0 = imageX0(tx), x1 = imageX1(tx);
+    int y0 = imageY0(ty), y1 = imageY1(ty);
+    int cx = tileColumn(tx, x0);
+    for (int i = y0; i < y1; i++) {
+      int from = tileRow(ty, i) * tileSize + cx;
+      int row = i * xsize;
+      for (int j = x0; j < x1; j++) {
+        int n = counts[from++];
+        out[row + j] = palette == null ? n : palette.argb(n);
+      }
+    }
+  } // copyTile
+}
+// class TileGrid
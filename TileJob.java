@@ -0,0 +1,55 @@
+import java.io.Serializable;
+
+// A single tile to be computed by a remote RenderWorker: the point of its
+// first pixel, the pixel size and the iteration limit. Only primitives are
+// sent, so a job costs a few dozen bytes on the wire.
+public final class TileJob implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final double a0;
+  private final double b0;
+  private final double da;
+  private final double db;
+  private final int tileSize;
+  private final int maxIterations;
+
+  public TileJob(double a0, double b0, double da, double db, int tileSize, int maxIterations) {
+    this.a0 = a0;
+    this.b0 = b0;
+    this.da = da;
+    this.db = db;
+    this.tileSize = tileSize;
+    this.maxIterations = maxIterations;
+  } // constructor
+
+  // Job for grid tile (tx, ty)
+  public TileJob(TileGrid grid, long tx, long ty, int maxIterations) {
+    this(grid.tileOriginA(tx), grid.tileOriginB(ty), grid.getPixelWidth(), grid.getPixelHeight(),
+        grid.getTileSize(), maxIterations);
+  } // constructor
+
+  public double getA0() {
+    return a0;
+  }
+
+  public double getB0() {
+    return b0;
+  }
+
+  public double getPixelWidth() {
+    return da;
+  }
+
+  public double getPixelHeight() {
+    return db;
+  }
+
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  public int getMaxIterations() {
+    return maxIterations;
+  }
+}
+// class TileJob
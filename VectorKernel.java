@@ -0,0 +1,151 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Escape-time kernel using the Vector API: one lane per pixel, with a mask of
+// the lanes that are still iterating. The arithmetic is done in the same order
+// as in ScalarKernel, and the cardioid/bulb test and the periodicity
+// checkpoints are applied per lane, so the iteration counts are identical.
+// Needs --add-modules jdk.incubator.vector at compile time and run time.
+public final class VectorKernel implements MandelbrotKernel {
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+  public VectorKernel() {
+  }
+
+  @Override
+  public void escapeTimes(double x1, double da, int from, int to, double b, int maxIterations,
+      int[] out, int offset) {
+    int lanes = SPECIES.length();
+    double[] as = new double[lanes];
+    double[] ns = new double[lanes];
+    int j = from;
+    for (; j + lanes <= to; j += lanes) {
+      for (int k = 0; k < lanes; k++) {
+        as[k] = x1 + (j + k) * da;
+      }
+      iterate(as, b, maxIterations, ns);
+      for (int k = 0; k < lanes; k++) {
+        out[offset++] = (int) ns[k];
+      }
+    }
+    // remaining columns that do not fill a vector
+    for (; j < to; j++) {
+      out[offset++] = ScalarKernel.escapeTime(x1 + j * da, b, maxIterations);
+    }
+  } // escapeTimes
+
+  // Iterate one vector of points (as[k] + bi), storing each lane's count in ns
+  private static void iterate(double[] as, double b, int maxIterations, double[] ns) {
+    DoubleVector a = DoubleVector.fromArray(SPECIES, as, 0);
+    DoubleVector vb = DoubleVector.broadcast(SPECIES, b);
+    DoubleVector max = DoubleVector.broadcast(SPECIES, maxIterations);
+    DoubleVector zero = DoubleVector.zero(SPECIES);
+    DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+    DoubleVector four = DoubleVector.broadcast(SPECIES, 4.0);
+    DoubleVector epsilon = DoubleVector.broadcast(SPECIES, ScalarKernel.PERIOD_EPSILON);
+    DoubleVector minusEpsilon = epsilon.neg();
+
+    // analytic rejection of the main cardioid and the period-2 bulb
+    DoubleVector b2 = vb.mul(vb);
+    DoubleVector aq = a.sub(0.25);
+    DoubleVector q = aq.mul(aq).add(b2);
+    VectorMask<Double> inside = q.mul(q.add(aq)).compare(VectorOperators.LE, b2.mul(0.25));
+    DoubleVector a1 = a.add(1.0);
+    inside = inside.or(a1.mul(a1).add(b2).compare(VectorOperators.LE, 0.0625));
+
+    DoubleVector n = zero.blend(max, inside);
+    VectorMask<Double> active = inside.not();
+    DoubleVector x = zero;
+    DoubleVector y = zero;
+    DoubleVector px = x;
+    DoubleVector py = y;
+    int checkpoint = ScalarKernel.FIRST_CHECK;
+
+    // every active lane has performed exactly i iterations
+    for (int i = 0; i < maxIterations; i++) {
+      DoubleVector xsq = x.mul(x);
+      DoubleVector ysq = y.mul(y);
+      active = active.and(xsq.add(ysq).compare(VectorOperators.LT, four));
+      if (!active.anyTrue()) {
+        break;
+      }
+      // escaped lanes keep iterating harmlessly; their counts are frozen by the mask
+      DoubleVector xx = xsq.sub(ysq).add(a);
+      y = x.mul(2.0).mul(y).add(vb);
+      x = xx;
+      n = n.add(zero.blend(one, active));
+
+      // lanes whose orbit has returned to the checkpoint are interior
+      DoubleVector dx = x.sub(px);
+      DoubleVector dy = y.sub(py);
+      VectorMask<Double> cycled = dx.compare(VectorOperators.LT, epsilon)
+          .and(dx.compare(VectorOperators.GT, minusEpsilon))
+          .and(dy.compare(VectorOperators.LT, epsilon))
+          .and(dy.compare(VectorOperators.GT, minusEpsilon))
+          .and(active);
+      n = n.blend(max, cycled);
+      active = active.andNot(cycled);
+      // refresh the saved point without branching on vectors, which keeps
+      // them in registers
+      VectorMask<Double> save = SPECIES.maskAll(i + 1 == checkpoint);
+      px = px.blend(x, save);
+      py = py.blend(y, save);
+      if (i + 1 == checkpoint) {
+        checkpoint <<= 1;
+      }
+    }
+    n.intoArray(ns, 0);
+  } // iterate
+
+  // Testing and Benchmarking
+
+  // Compare against the scalar reference on a few viewports and time both
+  public static void main(String[] args) {
+    int size = 600, maxIterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    Viewport[] views = {
+        new Viewport(-2.25, -1.8, 3.0, 3.3), // full set
+        new Viewport(-0.7485, 0.0995, 0.002, 0.002), // boundary-heavy
+        new Viewport(-0.3, -0.3, 0.4, 0.4) // interior-heavy
+    };
+    MandelbrotKernel scalar = ScalarKernel.INSTANCE;
+    MandelbrotKernel vector = new VectorKernel();
+    System.out.println("Vector species: " + SPECIES);
+    for (Viewport view : views) {
+      int[] expected = run(scalar, view, size, maxIterations);
+      int[] actual = run(vector, view, size, maxIterations);
+      for (int i = 0; i < expected.length; i++) {
+        if (expected[i] != actual[i]) {
+          throw new RuntimeException("Kernels differ at pixel " + i + " of " + view
+              + ": scalar " + expected[i] + ", vector " + actual[i]);
+        }
+      }
+      long scalarTime = time(scalar, view, size, maxIterations);
+      long vectorTime = time(vector, view, size, maxIterations);
+      System.out.println(view + ": scalar " + scalarTime / 1000000 + "ms, vector "
+          + vectorTime / 1000000 + "ms, speedup " + (double) scalarTime / vectorTime);
+    }
+    System.out.println("Kernels agree.");
+  } // main
+
+  private static int[] run(MandelbrotKernel kernel, Viewport view, int size, int maxIterations) {
+    int[] counts = new int[size * size];
+    double da = view.getWidth() / size, db = view.getHeight() / size;
+    for (int i = 0; i < size; i++) {
+      kernel.escapeTimes(view.getX1(), da, 0, size, view.getY1() + i * db, maxIterations,
+          counts, i * size);
+    }
+    return counts;
+  } // run
+
+  private static long time(MandelbrotKernel kernel, Viewport view, int size, int maxIterations) {
+    for (int i = 0; i < 10; i++) {
+      run(kernel, view, size, maxIterations); // warm up
+    }
+    long start = System.nanoTime();
+    run(kernel, view, size, maxIterations);
+    return System.nanoTime() - start;
+  } // time
+}
+// class VectorKernel
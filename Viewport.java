@@ -0,0 +1,79 @@
+// Immutable region of the complex plane to be rendered. Matches the applet's
+// convention: (x1, y1) is the top-left corner and width/height are the extents
+// (the applet's x2 and y2).
+public final class Viewport {
+  private final double x1;
+  private final double y1;
+  private final double width;
+  private final double height;
+
+  public Viewport(double x1, double y1, double width, double height) {
+    if (!(width > 0.0) || !(height > 0.0)) {
+      throw new IllegalArgumentException("Viewport extents must be positive");
+    }
+    this.x1 = x1;
+    this.y1 = y1;
+    this.width = width;
+    this.height = height;
+  } // constructor
+
+  public double getX1() {
+    return x1;
+  }
+
+  public double getY1() {
+    return y1;
+  }
+
+  public double getWidth() {
+    return width;
+  }
+
+  public double getHeight() {
+    return height;
+  }
+
+  // Zoom in by a factor of two around the pixel (x, y) of an xsize by ysize image
+  public Viewport zoom(int x, int y, int xsize, int ysize) {
+    double nx1 = x1 + ((double) x / (double) xsize) * width;
+    double ny1 = y1 + ((double) y / (double) ysize) * height;
+    double nw = width / 2.0;
+    double nh = height / 2.0;
+    return new Viewport(nx1 - nw / 2.0, ny1 - nh / 2.0, nw, nh);
+  } // zoom
+
+  // Zoom out by a factor of two around the pixel (x, y); the inverse of zoom
+  public Viewport zoomOut(int x, int y, int xsize, int ysize) {
+    double nw = width * 2.0;
+    double nh = height * 2.0;
+    double nx1 = x1 + nw / 4.0 - ((double) x / (double) xsize) * nw;
+    double ny1 = y1 + nh / 4.0 - ((double) y / (double) ysize) * nh;
+    return new Viewport(nx1, ny1, nw, nh);
+  } // zoomOut
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o)
+      return true;
+    if (!(o instanceof Viewport))
+      return false;
+    Viewport v = (Viewport) o;
+    return Double.compare(x1, v.x1) == 0 && Double.compare(y1, v.y1) == 0
+        && Double.compare(width, v.width) == 0 && Double.compare(height, v.height) == 0;
+  } // equals
+
+  @Override
+  public int hashCode() {
+    int h = Double.hashCode(x1);
+    h = 31 * h + Double.hashCode(y1);
+    h = 31 * h + Double.hashCode(width);
+    h = 31 * h + Double.hashCode(height);
+    return h;
+  } // hashCode
+
+  @Override
+  public String toString() {
+    return "Viewport[x1=" + x1 + ", y1=" + y1 + ", width=" + width + ", height=" + height + "]";
+  }
+}
+// class Viewport
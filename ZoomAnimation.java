@@ -0,0 +1,256 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import javax.imageio.ImageIO;
+
+// Offline renderer for zoom videos. A path of keyframes is spread evenly over
+// N frames and every frame is written as a numbered PNG file.
+//
+// Work is split into three pipeline stages joined by small bounded queues:
+// computing the iteration counts (all cores, through MandelbrotRenderer),
+// colouring them into an image, and PNG encoding plus writing to disk. While
+// one frame is being encoded the next ones are already being computed, and a
+// slow disk holds back the computation instead of filling the heap.
+public class ZoomAnimation {
+  private static final int QUEUE_CAPACITY = 2;
+
+  private final List<Keyframe> keyframes;
+  private final int frames;
+  private final int xsize;
+  private final int ysize;
+  private final int maxIterations;
+  private final File outDir;
+  private final int encoders;
+  private final MandelbrotRenderer renderer = new MandelbrotRenderer();
+
+  // time spent in each stage, in nanoseconds
+  private final AtomicLong computeTime = new AtomicLong();
+  private final AtomicLong colourTime = new AtomicLong();
+  private final AtomicLong encodeTime = new AtomicLong();
+
+  public ZoomAnimation(List<Keyframe> keyframes, int frames, int xsize, int ysize, int maxIterations,
+      File outDir, int encoders) {
+    if (keyframes.size() < 2 || frames < 2) {
+      throw new IllegalArgumentException("Need at least two keyframes and two frames");
+    }
+    if (xsize <= 0 || ysize <= 0 || maxIterations <= 0 || encoders <= 0) {
+      throw new IllegalArgumentException("Size, iteration limit and encoder count must be positive");
+    }
+    this.keyframes = new ArrayList<>(keyframes);
+    this.frames = frames;
+    this.xsize = xsize;
+    this.ysize = ysize;
+    this.maxIterations = maxIterations;
+    this.outDir = outDir;
+    this.encoders = encoders;
+  } // constructor
+
+  // View of the given frame. Keyframes are evenly spaced; between two of them
+  // the width changes geometrically (a constant zoom speed) and the centre
+  // moves in proportion to how much of the zoom has been done.
+  public DeepViewport viewAt(int frame) {
+    double position = (double) frame * (keyframes.size() - 1) / (frames - 1);
+    int k = Math.min((int) position, keyframes.size() - 2);
+    double t = position - k;
+    Keyframe from = keyframes.get(k), to = keyframes.get(k + 1);
+
+    double width = from.width * Math.pow(to.width / from.width, t);
+    double s = from.width == to.width ? t : (from.width - width) / (from.width - to.width);
+    double height = width * ysize / xsize;
+    DeepViewport scale = new DeepViewport(from.centreX, from.centreY, width, height);
+    MathContext mc = new MathContext(scale.precision(xsize, ysize));
+    BigDecimal step = new BigDecimal(s);
+    BigDecimal cx = from.centreX.add(to.centreX.subtract(from.centreX).multiply(step, mc), mc);
+    BigDecimal cy = from.centreY.add(to.centreY.subtract(from.centreY).multiply(step, mc), mc);
+    return new DeepViewport(cx, cy, width, height);
+  } // viewAt
+
+  // Render every frame, returning the number of frames per second achieved
+  public double run() throws IOException, InterruptedException {
+    if (!outDir.isDirectory() && !outDir.mkdirs()) {
+      throw new IOException("Cannot create output directory " + outDir);
+    }
+    BlockingQueue<Frame> computed = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    BlockingQueue<Frame> coloured = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> stages = new ArrayList<>();
+    Thread main = Thread.currentThread();
+    // The first failure stops the whole pipeline: every stage is interrupted
+    // out of its blocking queue operation, so none waits for a frame or a free
+    // slot that will never come
+    Consumer<Throwable> fail = e -> {
+      if (failure.compareAndSet(null, e)) {
+        for (Thread stage : stages) {
+          stage.interrupt();
+        }
+        main.interrupt();
+      }
+    };
+    Palette palette = Palette.forLimit(maxIterations);
+    long start = System.nanoTime();
+
+    stages.add(new Thread(() -> {
+      try {
+        for (Frame f = computed.take(); f != Frame.END; f = computed.take()) {
+          long t = System.nanoTime();
+          BufferedImage image = new BufferedImage(xsize, ysize, BufferedImage.TYPE_INT_RGB);
+          int[] pixels = MandelbrotRenderer.pixels(image);
+          for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = palette.argb(f.counts[i]);
+          }
+          colourTime.addAndGet(System.nanoTime() - t);
+          coloured.put(new Frame(f.number, null, image));
+        }
+        // One end marker per encoder, each waiting for a free slot
+        for (int i = 0; i < encoders; i++) {
+          coloured.put(Frame.END);
+        }
+      } catch (InterruptedException | RuntimeException e) {
+        fail.accept(e);
+      }
+    }, "zoom-colour"));
+
+    for (int i = 0; i < encoders; i++) {
+      stages.add(new Thread(() -> {
+        try {
+          for (Frame f = coloured.take(); f != Frame.END; f = coloured.take()) {
+            long t = System.nanoTime();
+            File file = new File(outDir, String.format("frame%05d.png", f.number));
+            if (!ImageIO.write(f.image, "png", file)) {
+              throw new IOException("No PNG writer available");
+            }
+            encodeTime.addAndGet(System.nanoTime() - t);
+          }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+          fail.accept(e);
+        }
+      }, "zoom-encode-" + i));
+    }
+
+    for (Thread stage : stages) {
+      stage.start();
+    }
+    try {
+      for (int n = 0; n < frames; n++) {
+        long t = System.nanoTime();
+        DeepViewport view = viewAt(n);
+        int[] counts = view.needsPerturbation(xsize, ysize)
+            ? renderer.render(view, xsize, ysize, maxIterations)
+            : renderer.render(view.toViewport(), xsize, ysize, maxIterations);
+        computeTime.addAndGet(System.nanoTime() - t);
+        computed.put(new Frame(n, counts, null));
+      }
+      computed.put(Frame.END);
+    } catch (InterruptedException | RuntimeException e) {
+      fail.accept(e);
+    } finally {
+      // Clear an interrupt sent by a failing stage, then wait for every stage.
+      // A stage that fails during the joins interrupts this thread too, so
+      // keep joining; its failure is what gets reported. Only an interrupt
+      // from outside the pipeline is passed back to the caller.
+      Thread.interrupted();
+      boolean interrupted = false;
+      for (Thread stage : stages) {
+        while (true) {
+          try {
+            stage.join();
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+      if (interrupted && failure.get() == null) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    Throwable e = failure.get();
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    } else if (e instanceof InterruptedException) {
+      throw (InterruptedException) e;
+    } else if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    double fps = frames / seconds;
+    System.out.printf("%d frames in %.2fs: %.2f frames/sec%n", frames, seconds, fps);
+    System.out.printf("Stage time: compute %.2fs, colour %.2fs, encode %.2fs (%d encoders)%n",
+        computeTime.get() / 1e9, colourTime.get() / 1e9, encodeTime.get() / 1e9, encoders);
+    return fps;
+  } // run
+
+  // Inner classes
+
+  // A point on the zoom path: the view's centre and width
+  public static final class Keyframe {
+    private final BigDecimal centreX;
+    private final BigDecimal centreY;
+    private final double width;
+
+    public Keyframe(BigDecimal centreX, BigDecimal centreY, double width) {
+      if (!(width > 0.0)) {
+        throw new IllegalArgumentException("Keyframe width must be positive");
+      }
+      this.centreX = centreX;
+      this.centreY = centreY;
+      this.width = width;
+    } // constructor
+
+    // Parse "centreX,centreY,width"
+    public static Keyframe parse(String s) {
+      String[] parts = s.split(",");
+      if (parts.length != 3) {
+        throw new IllegalArgumentException("Keyframe must be centreX,centreY,width: " + s);
+      }
+      return new Keyframe(new BigDecimal(parts[0].trim()), new BigDecimal(parts[1].trim()),
+          Double.parseDouble(parts[2].trim()));
+    } // parse
+  } // inner class Keyframe
+
+  // A frame passing through the pipeline
+  private static class Frame {
+    static final Frame END = new Frame(-1, null, null); // no more frames
+
+    final int number;
+    final int[] counts;
+    final BufferedImage image;
+
+    Frame(int number, int[] counts, BufferedImage image) {
+      this.number = number;
+      this.counts = counts;
+      this.image = image;
+    } // constructor
+  } // inner class Frame
+
+  // java ZoomAnimation outDir frames width height maxIterations keyframe keyframe...
+  // where each keyframe is centreX,centreY,width
+  public static void main(String[] args) throws Exception {
+    if (args.length < 7) {
+      System.err.println("Usage: java ZoomAnimation outDir frames width height maxIterations"
+          + " cx,cy,width cx,cy,width...");
+      System.exit(1);
+    }
+    System.setProperty("java.awt.headless", "true");
+    List<Keyframe> keyframes = new ArrayList<>();
+    for (int i = 5; i < args.length; i++) {
+      keyframes.add(Keyframe.parse(args[i]));
+    }
+    int encoders = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    ZoomAnimation animation = new ZoomAnimation(keyframes, Integer.parseInt(args[1]),
+        Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+        new File(args[0]), encoders);
+    animation.run();
+  } // main
+}
+// class ZoomAnimation
@@ -0,0 +1,132 @@
+package bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+// JMH benchmarks for the Mandelbrot kernels and the tiled renderer.
+//
+// kernelPerPixel measures the escape-time kernel alone, reported per pixel so
+// that views of different cost can be compared directly. renderFrame measures
+// a whole frame through MandelbrotRenderer for each tile size and pool size,
+// which is the data for choosing DEFAULT_TILE_SIZE. The views are described
+// in MandelbrotBenchmarkTargets.
+//
+// Needs jmh-core and jmh-generator-annprocess on the class path along with the
+// compiled renderer; the fork is given --add-modules jdk.incubator.vector for
+// the vector kernel. Run with: java bench.MandelbrotBenchmark [JMH options]
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class MandelbrotBenchmark {
+  private static final int MAX_ITERATIONS = 1000;
+  private static final int KERNEL_SIZE = 256; // kernelPerPixel computes KERNEL_SIZE^2 pixels
+  private static final int FRAME_SIZE = 1024;
+
+  // Look up a factory in the default-package MandelbrotBenchmarkTargets
+  @SuppressWarnings("unchecked")
+  static Supplier<int[]> target(String name, Class<?>[] types, Object... args) {
+    try {
+      return (Supplier<int[]>) Class.forName("MandelbrotBenchmarkTargets")
+          .getMethod(name, types).invoke(null, args);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Cannot set up benchmark " + name, e);
+    }
+  } // target
+
+  // Inner classes
+
+  @State(Scope.Thread)
+  public static class KernelState {
+    @Param({ "full", "boundary", "interior" })
+    public String view;
+
+    @Param({ "scalar", "vector" })
+    public String kernel;
+
+    Supplier<int[]> grid;
+
+    @Setup
+    public void setup() {
+      grid = target("kernelGrid", new Class<?>[] { String.class, String.class, int.class, int.class },
+          view, kernel, KERNEL_SIZE, MAX_ITERATIONS);
+    } // setup
+  } // inner class KernelState
+
+  @State(Scope.Benchmark)
+  public static class FrameState {
+    @Param({ "full", "boundary", "interior" })
+    public String view;
+
+    @Param({ "16", "32", "64", "128", "256" })
+    public int tileSize;
+
+    // 0 means one thread per available processor
+    @Param({ "1", "2", "4", "0" })
+    public int poolSize;
+
+    ForkJoinPool pool;
+    Supplier<int[]> frame;
+
+    @Setup
+    public void setup() {
+      pool = new ForkJoinPool(poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors());
+      frame = target("frame",
+          new Class<?>[] { String.class, ForkJoinPool.class, int.class, int.class, int.class },
+          view, pool, tileSize, FRAME_SIZE, MAX_ITERATIONS);
+    } // setup
+
+    @TearDown
+    public void tearDown() {
+      pool.shutdown();
+    } // tearDown
+  } // inner class FrameState
+
+  // Escape-time kernel over a KERNEL_SIZE x KERNEL_SIZE grid, per pixel
+  @Benchmark
+  @OperationsPerInvocation(KERNEL_SIZE * KERNEL_SIZE)
+  public int[] kernelPerPixel(KernelState s) {
+    return s.grid.get();
+  } // kernelPerPixel
+
+  // A whole FRAME_SIZE x FRAME_SIZE frame of iteration counts
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int[] renderFrame(FrameState s) {
+    return s.frame.get();
+  } // renderFrame
+
+  // Hand off to JMH's own launcher, so that every JMH option works, including
+  // -l and -h, running these benchmarks unless others are named
+  public static void main(String[] args) throws IOException, CommandLineOptionException {
+    List<String> launch = new ArrayList<>(Arrays.asList(args));
+    if (new CommandLineOptions(args).getIncludes().isEmpty()) {
+      launch.add(0, MandelbrotBenchmark.class.getName());
+    }
+    Main.main(launch.toArray(new String[0]));
+  } // main
+}
+// class MandelbrotBenchmark
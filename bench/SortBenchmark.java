@@ -0,0 +1,168 @@
+package bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+// JMH benchmarks for the sorts over a matrix of input distributions (see
+// InputDistribution) and sizes. sequential compares Sort.quickSort with
+// Arrays.sort; parallel runs ParallelQuickSort, in both partitioning modes,
+// across pool sizes and its sequential threshold (0 meaning the adaptive
+// one), and parallelBaseline runs Arrays.parallelSort across the same pool
+// sizes. The baseline has no threshold, so it is kept out of that parameter.
+//
+// Each invocation sorts a fresh copy of the input, made outside the timed
+// region. main hands off to JMH's own launcher, so every JMH option works,
+// including -l and -h. It writes JSON results to sort-benchmark.json and adds
+// the GC profiler for allocation rates, unless other options are given.
+//
+// Needs jmh-core and jmh-generator-annprocess on the class path along with the
+// compiled sorts. Run with: java bench.SortBenchmark [JMH options], and use
+// -p to narrow the matrix, e.g. -p distribution=RANDOM,SORTED -p size=1000000
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortBenchmark {
+
+    // Look up a method of the default-package SortBenchmarkTargets
+    @SuppressWarnings("unchecked")
+    static <R> R target(String name, Class<?>[] types, Object... args) {
+        try {
+            return (R) Class.forName("SortBenchmarkTargets").getMethod(name, types).invoke(null, args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set up benchmark " + name, e);
+        }
+    }
+
+    // Input shared by both benchmarks
+    @State(Scope.Thread)
+    public abstract static class Input {
+        @Param({ "RANDOM", "SORTED", "REVERSE", "ORGAN_PIPE", "FEW_UNIQUE", "NEARLY_SORTED" })
+        public String distribution;
+
+        @Param({ "10000", "1000000" })
+        public int size;
+
+        Integer[] source;
+        Integer[] list;
+        Consumer<Integer[]> sorter;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            source = target("input", new Class<?>[] { String.class, int.class, long.class }, distribution, size, 42L);
+        }
+
+        // Sorts of these sizes take far longer than the per-invocation overhead
+        @Setup(Level.Invocation)
+        public void copy() {
+            list = source.clone();
+        }
+    }
+
+    public static class SequentialState extends Input {
+        @Param({ "Sort.quickSort", "Arrays.sort" })
+        public String algorithm;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            sorter = target("sorter", new Class<?>[] { String.class, ForkJoinPool.class, int.class },
+                    algorithm, null, 0);
+        }
+    }
+
+    // Input and pool shared by the parallel benchmarks
+    public abstract static class PooledInput extends Input {
+        // 0 means one thread per available processor
+        @Param({ "1", "4", "0" })
+        public int poolSize;
+
+        ForkJoinPool pool;
+
+        void setup(String algorithm, int threshold) {
+            pool = new ForkJoinPool(poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors());
+            sorter = target("sorter", new Class<?>[] { String.class, ForkJoinPool.class, int.class },
+                    algorithm, pool, threshold);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    public static class ParallelState extends PooledInput {
+        @Param({ "ParallelQuickSort", "ParallelQuickSort.threeWay" })
+        public String algorithm;
+
+        @Param({ "0", "2048", "16384" })
+        public int threshold;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            setup(algorithm, threshold);
+        }
+    }
+
+    public static class BaselineState extends PooledInput {
+        @Setup(Level.Trial)
+        public void setup() {
+            setup("Arrays.parallelSort", 0);
+        }
+    }
+
+    @Benchmark
+    public Integer[] sequential(SequentialState s) {
+        s.sorter.accept(s.list);
+        return s.list;
+    }
+
+    @Benchmark
+    public Integer[] parallel(ParallelState s) {
+        s.sorter.accept(s.list);
+        return s.list;
+    }
+
+    @Benchmark
+    public Integer[] parallelBaseline(BaselineState s) {
+        s.sorter.accept(s.list);
+        return s.list;
+    }
+
+    public static void main(String[] args) throws IOException, CommandLineOptionException {
+        CommandLineOptions command = new CommandLineOptions(args);
+        List<String> launch = new ArrayList<>(Arrays.asList(args));
+        if (command.getIncludes().isEmpty()) {
+            launch.add(0, SortBenchmark.class.getName());
+        }
+        if (!command.getResultFormat().hasValue()) {
+            launch.addAll(List.of("-rf", "json", "-rff", "sort-benchmark.json"));
+        }
+        if (command.getProfilers().isEmpty()) {
+            launch.addAll(List.of("-prof", "gc"));
+        }
+        Main.main(launch.toArray(new String[0]));
+    }
+}